@@ -9,9 +9,25 @@ import io.dropwizard.Configuration;
 
 public class AcceleratorConfiguration extends Configuration {
 
+  // only needed when not relaying
+  @Valid
+  private AcceleratorDataSourceFactory database = null;
+
+  @Valid
+  @NotNull
+  private SnapshotIndexConfiguration snapshotIndex = new SnapshotIndexConfiguration();
+
+  @Valid
+  @NotNull
+  private SnapshotWriterConfiguration snapshotWriter = new SnapshotWriterConfiguration();
+
+  @Valid
+  @NotNull
+  private SegmentExporterConfiguration segmentExporter = new SegmentExporterConfiguration();
+
   @Valid
   @NotNull
-  private AcceleratorDataSourceFactory database = new AcceleratorDataSourceFactory();
+  private RelayConfiguration relay = new RelayConfiguration();
 
   @JsonProperty("database")
   public AcceleratorDataSourceFactory getDataSourceFactory() {
@@ -22,4 +38,44 @@ public class AcceleratorConfiguration extends Configuration {
   public void setDataSourceFactory(AcceleratorDataSourceFactory factory) {
     this.database = factory;
   }
+
+  @JsonProperty("snapshotIndex")
+  public SnapshotIndexConfiguration getSnapshotIndex() {
+    return snapshotIndex;
+  }
+
+  @JsonProperty("snapshotIndex")
+  public void setSnapshotIndex(SnapshotIndexConfiguration snapshotIndex) {
+    this.snapshotIndex = snapshotIndex;
+  }
+
+  @JsonProperty("snapshotWriter")
+  public SnapshotWriterConfiguration getSnapshotWriter() {
+    return snapshotWriter;
+  }
+
+  @JsonProperty("snapshotWriter")
+  public void setSnapshotWriter(SnapshotWriterConfiguration snapshotWriter) {
+    this.snapshotWriter = snapshotWriter;
+  }
+
+  @JsonProperty("segmentExporter")
+  public SegmentExporterConfiguration getSegmentExporter() {
+    return segmentExporter;
+  }
+
+  @JsonProperty("segmentExporter")
+  public void setSegmentExporter(SegmentExporterConfiguration segmentExporter) {
+    this.segmentExporter = segmentExporter;
+  }
+
+  @JsonProperty("relay")
+  public RelayConfiguration getRelay() {
+    return relay;
+  }
+
+  @JsonProperty("relay")
+  public void setRelay(RelayConfiguration relay) {
+    this.relay = relay;
+  }
 }
@@ -4,6 +4,10 @@ import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.tweak.HandleCallback;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.hubspot.snapshots.client.AcceleratorClient;
+
 import io.dropwizard.Application;
 import io.dropwizard.jdbi.DBIFactory;
 import io.dropwizard.setup.Environment;
@@ -14,6 +18,7 @@ import liquibase.database.jvm.JdbcConnection;
 import liquibase.resource.ClassLoaderResourceAccessor;
 
 public class AcceleratorService extends Application<AcceleratorConfiguration> {
+  private final SnapshotIndex snapshotIndex = new SnapshotIndex();
 
   public static void main(String... args) throws Exception {
     new AcceleratorService().run(args);
@@ -21,6 +26,32 @@ public class AcceleratorService extends Application<AcceleratorConfiguration> {
 
   @Override
   public void run(AcceleratorConfiguration configuration, Environment environment) {
+    final SnapshotReporter reporter;
+    if (configuration.getRelay().isEnabled()) {
+      reporter = runRelay(configuration, environment);
+    } else {
+      reporter = runPrimary(configuration, environment);
+    }
+
+    environment.healthChecks().register("snapshotIndex", new SnapshotIndexHealthCheck(snapshotIndex));
+
+    environment.lifecycle().manage(new SegmentExporter(
+            snapshotIndex,
+            environment.getObjectMapper(),
+            configuration.getSegmentExporter(),
+            configuration.getSnapshotIndex().getTailOverlap()
+    ));
+
+    environment.jersey().register(new SnapshotsMessageBodyWriter());
+    environment.jersey().register(new HeadETagFilter(snapshotIndex));
+    environment.jersey().register(new SnapshotResource(snapshotIndex, reporter, environment.getObjectMapper()));
+  }
+
+  private SnapshotReporter runPrimary(AcceleratorConfiguration configuration, Environment environment) {
+    if (configuration.getDataSourceFactory() == null) {
+      throw new IllegalStateException("database must be configured unless relay.upstreamUrl is set");
+    }
+
     final DBIFactory factory = new DBIFactory();
     final DBI jdbi = factory.build(environment, configuration.getDataSourceFactory(), "mysql");
 
@@ -38,6 +69,43 @@ public class AcceleratorService extends Application<AcceleratorConfiguration> {
     }
 
     final SnapshotDao dao = jdbi.onDemand(SnapshotDao.class);
-    environment.jersey().register(new SnapshotResource(dao));
+    environment.lifecycle().manage(new SnapshotIndexLoader(dao, snapshotIndex, configuration.getSnapshotIndex()));
+
+    final SnapshotWriter writer = new SnapshotWriter(jdbi, snapshotIndex, configuration.getSnapshotWriter());
+    environment.lifecycle().manage(writer);
+    return writer;
+  }
+
+  /**
+   * Serves the delta of an upstream accelerator from a local copy, so clients far from
+   * the primary don't each pay for the round trip. There's no database.
+   */
+  private SnapshotReporter runRelay(AcceleratorConfiguration configuration, Environment environment) {
+    final AcceleratorClient client = AcceleratorClient.withBaseUrl(configuration.getRelay().getUpstreamUrl());
+
+    final UpstreamFollower follower = new UpstreamFollower(client, snapshotIndex, configuration.getSnapshotIndex());
+    environment.lifecycle().manage(follower);
+    environment.metrics().register(MetricRegistry.name(UpstreamFollower.class, "lagMillis"), new Gauge<Long>() {
+
+      @Override
+      public Long getValue() {
+        return follower.getLagMillis();
+      }
+    });
+    environment.metrics().register(MetricRegistry.name(UpstreamFollower.class, "headId"), new Gauge<Integer>() {
+
+      @Override
+      public Integer getValue() {
+        return snapshotIndex.getHeadId();
+      }
+    });
+
+    final UpstreamReporter reporter = new UpstreamReporter(client, snapshotIndex, configuration.getSnapshotWriter());
+    environment.lifecycle().manage(reporter);
+    return reporter;
+  }
+
+  SnapshotIndex getSnapshotIndex() {
+    return snapshotIndex;
   }
 }
@@ -0,0 +1,144 @@
+package com.hubspot.snapshots.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.hubspot.snapshots.core.SnapshotVersion;
+import com.hubspot.snapshots.core.SnapshotVersionEgg;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Queues reports and hands them to {@link #writeBatch(List)} a batch at a time on a
+ * single thread. Once the first report of a batch arrives, it waits up to
+ * {@code maxDelayMillis} for up to {@code maxBatchSize} reports to join it.
+ */
+public abstract class BatchingSnapshotReporter implements SnapshotReporter, Managed {
+  private final SnapshotWriterConfiguration configuration;
+  private final BlockingQueue<PendingReport> queue;
+  private final Thread thread;
+  private volatile boolean running;
+
+  protected BatchingSnapshotReporter(SnapshotWriterConfiguration configuration, String threadName) {
+    this.configuration = configuration;
+    this.queue = new LinkedBlockingQueue<>();
+    this.thread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        runLoop();
+      }
+    }, threadName);
+    this.thread.setDaemon(true);
+    this.running = false;
+  }
+
+  /**
+   * Completes the future of every report in the batch, with the stored snapshot or
+   * an exception.
+   */
+  protected abstract void writeBatch(List<PendingReport> batch);
+
+  @Override
+  public ListenableFuture<SnapshotVersion> submit(SnapshotVersionEgg snapshot) {
+    SettableFuture<SnapshotVersion> future = SettableFuture.create();
+    if (!running) {
+      future.setException(new IllegalStateException("Snapshot writer is not running"));
+      return future;
+    }
+
+    PendingReport report = new PendingReport(snapshot, future);
+    queue.add(report);
+    // if stop() ran since the check above, it may have drained the queue before the
+    // report was added, nothing else would complete it then
+    if (!running && queue.remove(report)) {
+      future.setException(new IllegalStateException("Snapshot writer was stopped"));
+    }
+
+    return future;
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    thread.start();
+  }
+
+  @Override
+  public void stop() throws InterruptedException {
+    running = false;
+    thread.interrupt();
+    thread.join(TimeUnit.SECONDS.toMillis(10));
+
+    List<PendingReport> abandoned = new ArrayList<>();
+    queue.drainTo(abandoned);
+    fail(abandoned, new IllegalStateException("Snapshot writer was stopped"));
+  }
+
+  private void runLoop() {
+    while (running) {
+      List<PendingReport> batch;
+      try {
+        batch = nextBatch();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      writeBatch(batch);
+    }
+  }
+
+  private List<PendingReport> nextBatch() throws InterruptedException {
+    List<PendingReport> batch = new ArrayList<>();
+    batch.add(queue.take());
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(configuration.getMaxDelayMillis());
+    while (batch.size() < configuration.getMaxBatchSize()) {
+      long remaining = deadline - System.nanoTime();
+      PendingReport next;
+      try {
+        next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+      } catch (InterruptedException e) {
+        // stopping, still write what was already taken off the queue
+        Thread.currentThread().interrupt();
+        break;
+      }
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+    }
+
+    return batch;
+  }
+
+  protected static void fail(List<PendingReport> reports, Exception e) {
+    for (PendingReport report : reports) {
+      report.getFuture().setException(e);
+    }
+  }
+
+  protected static class PendingReport {
+    private final SnapshotVersionEgg snapshot;
+    private final SettableFuture<SnapshotVersion> future;
+
+    private PendingReport(SnapshotVersionEgg snapshot, SettableFuture<SnapshotVersion> future) {
+      this.snapshot = snapshot;
+      this.future = future;
+    }
+
+    public SnapshotVersionEgg getSnapshot() {
+      return snapshot;
+    }
+
+    public SettableFuture<SnapshotVersion> getFuture() {
+      return future;
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package com.hubspot.snapshots.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import javax.ws.rs.NameBinding;
+
+/**
+ * Marks delta endpoints whose response only depends on the head of the snapshot
+ * index, so that {@link HeadETagFilter} can tag them and answer conditional requests.
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface HeadETag {}
@@ -0,0 +1,80 @@
+package com.hubspot.snapshots.api;
+
+import java.io.IOException;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * Tags delta responses with a weak ETag of the index head id, and answers a GET or
+ * HEAD request whose {@code If-None-Match} already has the current head with a 304
+ * without touching the index. Since ids only grow, a client that has processed
+ * everything up to offset {@code n} can send {@code W/"n"} without having seen an
+ * ETag before. A 304 is only allowed for GET and HEAD, so filtered deltas (which are
+ * POSTs) ignore {@code If-None-Match} and return an empty delta instead.
+ */
+@HeadETag
+public class HeadETagFilter implements ContainerRequestFilter, ContainerResponseFilter {
+  private static final String ETAG_PROPERTY = HeadETagFilter.class.getName() + ".etag";
+
+  private final SnapshotIndex snapshotIndex;
+
+  public HeadETagFilter(SnapshotIndex snapshotIndex) {
+    this.snapshotIndex = snapshotIndex;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request) throws IOException {
+    if (!snapshotIndex.isLoaded()) {
+      // let the resource return a 503
+      return;
+    }
+
+    // read the head before the response is generated, so the tag is never newer than the body
+    EntityTag etag = new EntityTag(String.valueOf(snapshotIndex.getHeadId()), true);
+    request.setProperty(ETAG_PROPERTY, etag);
+
+    if (isGetOrHead(request.getMethod()) && matches(request.getHeaderString(HttpHeaders.IF_NONE_MATCH), etag)) {
+      request.abortWith(Response.notModified(etag).build());
+    }
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+    Object etag = request.getProperty(ETAG_PROPERTY);
+    if (etag != null && response.getStatus() == Response.Status.OK.getStatusCode()) {
+      response.getHeaders().putSingle(HttpHeaders.ETAG, etag);
+    }
+  }
+
+  private static boolean isGetOrHead(String method) {
+    return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method);
+  }
+
+  private static boolean matches(String ifNoneMatch, EntityTag etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    // If-None-Match uses weak comparison, so the W/ prefix doesn't matter
+    String quoted = '"' + etag.getValue() + '"';
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+
+      if (candidate.equals("*") || candidate.equals(quoted)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
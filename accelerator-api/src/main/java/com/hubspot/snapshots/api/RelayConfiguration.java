@@ -0,0 +1,28 @@
+package com.hubspot.snapshots.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class RelayConfiguration {
+
+  private String upstreamUrl = null;
+
+  /**
+   * Base url of the accelerator to relay, or a comma-separated list of its replicas.
+   * If this is set the service doesn't use a database: it follows the upstream delta
+   * into its index, tailing every {@code snapshotIndex.tailIntervalMillis}, and
+   * forwards reports upstream. Relaying is off if this is null.
+   */
+  @JsonProperty
+  public String getUpstreamUrl() {
+    return upstreamUrl;
+  }
+
+  @JsonProperty
+  public void setUpstreamUrl(String upstreamUrl) {
+    this.upstreamUrl = upstreamUrl;
+  }
+
+  public boolean isEnabled() {
+    return upstreamUrl != null;
+  }
+}
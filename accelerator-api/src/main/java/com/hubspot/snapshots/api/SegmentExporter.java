@@ -0,0 +1,172 @@
+package com.hubspot.snapshots.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hubspot.snapshots.core.DeltaSegment;
+import com.hubspot.snapshots.core.SegmentManifest;
+import com.hubspot.snapshots.core.SnapshotCodec;
+import com.hubspot.snapshots.core.SnapshotVersion;
+import com.hubspot.snapshots.core.Snapshots;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Periodically writes the snapshot index out as immutable, gzipped segment files of
+ * {@code segmentSize} snapshots each, plus a {@link SegmentManifest} pointing at them,
+ * so that a static HTTP server or CDN can serve the bulk of the delta to new clients.
+ *
+ * Only full segments are written, and only from ids that are at least
+ * {@code settleIds} below the head, so that rows committed out of id order by other
+ * nodes have landed in the index before the range is frozen. A segment keeps the
+ * snapshots that were current when it was written, replaying the segments and then
+ * the live delta in order still ends at the latest version of each snapshot.
+ */
+public class SegmentExporter implements Managed {
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentExporter.class);
+
+  private final SnapshotIndex snapshotIndex;
+  private final ObjectMapper objectMapper;
+  private final SegmentExporterConfiguration configuration;
+  private final int settleIds;
+  private final List<DeltaSegment> segments;
+  private final ScheduledExecutorService executor;
+
+  public SegmentExporter(SnapshotIndex snapshotIndex,
+                         ObjectMapper objectMapper,
+                         SegmentExporterConfiguration configuration,
+                         int settleIds) {
+    this.snapshotIndex = snapshotIndex;
+    this.objectMapper = objectMapper;
+    this.configuration = configuration;
+    this.settleIds = settleIds;
+    this.segments = new ArrayList<>();
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "segment-exporter");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  @Override
+  public void start() throws IOException {
+    if (configuration.getDirectory() == null) {
+      return;
+    }
+
+    Files.createDirectories(directory());
+    loadManifest();
+
+    long interval = configuration.getIntervalMillis();
+    executor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          export();
+        } catch (Exception e) {
+          LOG.error("Error exporting delta segments", e);
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  synchronized void export() throws IOException {
+    if (!snapshotIndex.isLoaded()) {
+      return;
+    }
+
+    int exportable = snapshotIndex.getHeadId() - settleIds;
+    boolean changed = !Files.exists(directory().resolve(SegmentManifest.FILENAME));
+
+    while (true) {
+      int startOffset = nextOffset();
+      List<SnapshotVersion> snapshots = new ArrayList<>(configuration.getSegmentSize());
+      for (SnapshotVersion snapshot : snapshotIndex.after(startOffset)) {
+        if (snapshot.getId() > exportable || snapshots.size() == configuration.getSegmentSize()) {
+          break;
+        }
+
+        snapshots.add(snapshot);
+      }
+
+      if (snapshots.size() < configuration.getSegmentSize()) {
+        break;
+      }
+
+      int endOffset = snapshots.get(snapshots.size() - 1).getId();
+      DeltaSegment segment = new DeltaSegment("segment-" + startOffset + "-" + endOffset + ".bin.gz", startOffset, endOffset);
+      writeSegment(segment, snapshots);
+      segments.add(segment);
+      changed = true;
+      LOG.info("Exported delta segment {}", segment.getFile());
+    }
+
+    if (changed) {
+      writeAtomically(SegmentManifest.FILENAME, objectMapper.writeValueAsBytes(new SegmentManifest(segments, nextOffset())));
+    }
+  }
+
+  private int nextOffset() {
+    return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getEndOffset();
+  }
+
+  private void loadManifest() throws IOException {
+    Path manifest = directory().resolve(SegmentManifest.FILENAME);
+    if (Files.exists(manifest)) {
+      segments.addAll(objectMapper.readValue(manifest.toFile(), SegmentManifest.class).getSegments());
+      LOG.info("Found {} existing delta segments in {}", segments.size(), directory());
+    }
+  }
+
+  private void writeSegment(DeltaSegment segment, List<SnapshotVersion> snapshots) throws IOException {
+    Path temp = Files.createTempFile(directory(), "segment-", ".tmp");
+    try {
+      try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(temp))) {
+        SnapshotCodec.writeSnapshots(new Snapshots(snapshots, false, segment.getEndOffset()), output);
+      }
+
+      Files.move(temp, directory().resolve(segment.getFile()), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void writeAtomically(String fileName, byte[] bytes) throws IOException {
+    Path temp = Files.createTempFile(directory(), "head-", ".tmp");
+    try {
+      Files.write(temp, bytes);
+      Files.move(temp, directory().resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private Path directory() {
+    return Paths.get(configuration.getDirectory());
+  }
+}
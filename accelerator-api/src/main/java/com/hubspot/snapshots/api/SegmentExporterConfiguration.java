@@ -0,0 +1,49 @@
+package com.hubspot.snapshots.api;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SegmentExporterConfiguration {
+
+  private String directory = null;
+
+  @Min(1)
+  private long intervalMillis = 60000;
+
+  @Min(1)
+  private int segmentSize = 10000;
+
+  /**
+   * Where to write segments and the head pointer, exporting is off if this is null.
+   */
+  @JsonProperty
+  public String getDirectory() {
+    return directory;
+  }
+
+  @JsonProperty
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+
+  @JsonProperty
+  public long getIntervalMillis() {
+    return intervalMillis;
+  }
+
+  @JsonProperty
+  public void setIntervalMillis(long intervalMillis) {
+    this.intervalMillis = intervalMillis;
+  }
+
+  @JsonProperty
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  @JsonProperty
+  public void setSegmentSize(int segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+}
@@ -0,0 +1,93 @@
+package com.hubspot.snapshots.api;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+import com.hubspot.snapshots.core.SnapshotVersionCore;
+
+/**
+ * In-memory copy of latest_snapshots, ordered by id, that delta reads are served from.
+ * Mirrors the table semantics: there is at most one entry per coordinates, and a
+ * newer id for the same coordinates replaces the older one.
+ */
+public class SnapshotIndex {
+  private final ConcurrentNavigableMap<Integer, SnapshotVersion> snapshotsById;
+  private final ConcurrentMap<String, SnapshotVersion> snapshotsByCoordinates;
+  private volatile int headId;
+  private volatile boolean loaded;
+
+  public SnapshotIndex() {
+    this.snapshotsById = new ConcurrentSkipListMap<>();
+    this.snapshotsByCoordinates = new ConcurrentHashMap<>();
+    this.headId = 0;
+    this.loaded = false;
+  }
+
+  public synchronized void put(SnapshotVersion snapshot) {
+    String key = key(snapshot);
+    SnapshotVersion existing = snapshotsByCoordinates.get(key);
+    if (existing != null && existing.getId() >= snapshot.getId()) {
+      return;
+    }
+
+    // add before removing so that concurrent readers always see one of the two
+    snapshotsById.put(snapshot.getId(), snapshot);
+    snapshotsByCoordinates.put(key, snapshot);
+    if (existing != null) {
+      snapshotsById.remove(existing.getId());
+    }
+
+    headId = Math.max(headId, snapshot.getId());
+  }
+
+  public void putAll(Iterable<SnapshotVersion> snapshots) {
+    for (SnapshotVersion snapshot : snapshots) {
+      put(snapshot);
+    }
+  }
+
+  public SnapshotVersion get(SnapshotVersionCore coordinates) {
+    return snapshotsByCoordinates.get(key(coordinates));
+  }
+
+  public Collection<SnapshotVersion> after(int offset) {
+    return snapshotsById.tailMap(offset, false).values();
+  }
+
+  /**
+   * Snapshots with ids after {@code offset}, up to and including {@code until}.
+   */
+  public Collection<SnapshotVersion> between(int offset, int until) {
+    return snapshotsById.subMap(offset, false, until, true).values();
+  }
+
+  public int getHeadId() {
+    return headId;
+  }
+
+  public int size() {
+    return snapshotsById.size();
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  void markLoaded() {
+    this.loaded = true;
+  }
+
+  synchronized void clear() {
+    snapshotsById.clear();
+    snapshotsByCoordinates.clear();
+    headId = 0;
+  }
+
+  static String key(SnapshotVersionCore snapshot) {
+    return snapshot.getGroupId() + ':' + snapshot.getArtifactId() + ':' + snapshot.getBaseVersion();
+  }
+}
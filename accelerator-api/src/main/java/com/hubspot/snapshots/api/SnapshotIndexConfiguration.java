@@ -0,0 +1,38 @@
+package com.hubspot.snapshots.api;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SnapshotIndexConfiguration {
+
+  @Min(1)
+  private long tailIntervalMillis = 1000;
+
+  @Min(0)
+  private int tailOverlap = SnapshotDao.PAGE_SIZE;
+
+  @JsonProperty
+  public long getTailIntervalMillis() {
+    return tailIntervalMillis;
+  }
+
+  @JsonProperty
+  public void setTailIntervalMillis(long tailIntervalMillis) {
+    this.tailIntervalMillis = tailIntervalMillis;
+  }
+
+  /**
+   * How far below the current head to re-read when tailing, so that rows committed
+   * out of id order by other nodes are still picked up.
+   */
+  @JsonProperty
+  public int getTailOverlap() {
+    return tailOverlap;
+  }
+
+  @JsonProperty
+  public void setTailOverlap(int tailOverlap) {
+    this.tailOverlap = tailOverlap;
+  }
+}
@@ -0,0 +1,20 @@
+package com.hubspot.snapshots.api;
+
+import com.codahale.metrics.health.HealthCheck;
+
+public class SnapshotIndexHealthCheck extends HealthCheck {
+  private final SnapshotIndex snapshotIndex;
+
+  public SnapshotIndexHealthCheck(SnapshotIndex snapshotIndex) {
+    this.snapshotIndex = snapshotIndex;
+  }
+
+  @Override
+  protected Result check() {
+    if (snapshotIndex.isLoaded()) {
+      return Result.healthy("Snapshot index has " + snapshotIndex.size() + " snapshots, head is " + snapshotIndex.getHeadId());
+    } else {
+      return Result.unhealthy("Snapshot index has not finished its initial load");
+    }
+  }
+}
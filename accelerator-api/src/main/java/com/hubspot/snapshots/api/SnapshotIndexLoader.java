@@ -0,0 +1,100 @@
+package com.hubspot.snapshots.api;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.skife.jdbi.v2.ResultIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Fills the {@link SnapshotIndex} from the database on startup, then keeps it
+ * converged with writes from other nodes by tailing new ids.
+ */
+public class SnapshotIndexLoader implements Managed {
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotIndexLoader.class);
+
+  private final SnapshotDao snapshotDao;
+  private final SnapshotIndex snapshotIndex;
+  private final SnapshotIndexConfiguration configuration;
+  private final ScheduledExecutorService executor;
+
+  public SnapshotIndexLoader(SnapshotDao snapshotDao, SnapshotIndex snapshotIndex, SnapshotIndexConfiguration configuration) {
+    this.snapshotDao = snapshotDao;
+    this.snapshotIndex = snapshotIndex;
+    this.configuration = configuration;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "snapshot-index-loader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  @Override
+  public void start() {
+    // try once before the connectors open so that a healthy database means no 503s
+    refresh();
+
+    long interval = configuration.getTailIntervalMillis();
+    executor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  void refresh() {
+    try {
+      if (snapshotIndex.isLoaded()) {
+        tail();
+      } else {
+        load();
+      }
+    } catch (Exception e) {
+      LOG.error("Error refreshing snapshot index", e);
+    }
+  }
+
+  private void load() {
+    long start = System.currentTimeMillis();
+    try (ResultIterator<SnapshotVersion> snapshots = snapshotDao.streamDelta(0)) {
+      while (snapshots.hasNext()) {
+        snapshotIndex.put(snapshots.next());
+      }
+    }
+
+    snapshotIndex.markLoaded();
+    LOG.info("Loaded {} snapshots into index in {}ms", snapshotIndex.size(), System.currentTimeMillis() - start);
+  }
+
+  private void tail() {
+    int offset = Math.max(0, snapshotIndex.getHeadId() - configuration.getTailOverlap());
+
+    List<SnapshotVersion> snapshots;
+    do {
+      snapshots = snapshotDao.getDelta(offset);
+      for (SnapshotVersion snapshot : snapshots) {
+        snapshotIndex.put(snapshot);
+        offset = Math.max(offset, snapshot.getId());
+      }
+    } while (snapshots.size() == SnapshotDao.PAGE_SIZE);
+  }
+}
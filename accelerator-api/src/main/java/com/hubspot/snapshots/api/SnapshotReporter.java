@@ -0,0 +1,14 @@
+package com.hubspot.snapshots.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hubspot.snapshots.core.SnapshotVersion;
+import com.hubspot.snapshots.core.SnapshotVersionEgg;
+
+/**
+ * Where {@link SnapshotResource} sends reports. The future completes with the stored
+ * snapshot once the report has been written, at which point it's also in the
+ * {@link SnapshotIndex}.
+ */
+public interface SnapshotReporter {
+  ListenableFuture<SnapshotVersion> submit(SnapshotVersionEgg snapshot);
+}
@@ -1,19 +1,35 @@
 package com.hubspot.snapshots.api;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
-import org.skife.jdbi.v2.Transaction;
-import org.skife.jdbi.v2.TransactionStatus;
-
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.hubspot.snapshots.core.BloomFilter;
+import com.hubspot.snapshots.core.SnapshotCodec;
+import com.hubspot.snapshots.core.SnapshotReportResult;
 import com.hubspot.snapshots.core.SnapshotVersion;
 import com.hubspot.snapshots.core.SnapshotVersionEgg;
 import com.hubspot.snapshots.core.Snapshots;
@@ -22,50 +38,227 @@ import com.hubspot.snapshots.core.Snapshots;
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class SnapshotResource {
-  private final SnapshotDao snapshotDao;
+  public static final String NDJSON = "application/x-ndjson";
+  // lower quality than JSON so that clients that don't ask for it still get JSON
+  private static final String BINARY = SnapshotCodec.MEDIA_TYPE + ";qs=0.9";
+
+  private static final long INDEX_LOADING_RETRY_SECONDS = 5;
+  // shorter than the client's read timeout, so it gets an answer it can act on
+  private static final long REPORT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final SnapshotIndex snapshotIndex;
+  private final SnapshotReporter snapshotReporter;
+  private final ObjectMapper objectMapper;
 
   @Inject
-  public SnapshotResource(SnapshotDao snapshotDao) {
-    this.snapshotDao = snapshotDao;
+  public SnapshotResource(SnapshotIndex snapshotIndex, SnapshotReporter snapshotReporter, ObjectMapper objectMapper) {
+    this.snapshotIndex = snapshotIndex;
+    this.snapshotReporter = snapshotReporter;
+    this.objectMapper = objectMapper;
   }
 
   @GET
   @Path("/delta")
+  @HeadETag
+  @Produces({ MediaType.APPLICATION_JSON, BINARY })
   public Snapshots getDelta(@QueryParam("offset") int offset) {
-    List<SnapshotVersion> snapshots = snapshotDao.getDelta(offset);
-    int nextOffset = nextOffset(snapshots, offset);
-    return new Snapshots(snapshots, snapshots.size() == SnapshotDao.PAGE_SIZE, nextOffset);
+    return page(offset, null);
   }
 
+  /**
+   * Same as {@link #getDelta(int)} but only returns snapshots that might be in the
+   * bloom filter in the request body. {@code nextOffset} still moves past the
+   * snapshots that were left out.
+   */
   @POST
-  public SnapshotVersion report(final SnapshotVersionEgg snapshot) {
-    int id = snapshotDao.inTransaction(new Transaction<Integer, SnapshotDao>() {
+  @Path("/delta")
+  @HeadETag
+  @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+  @Produces({ MediaType.APPLICATION_JSON, BINARY })
+  public Snapshots getFilteredDelta(@QueryParam("offset") int offset, byte[] filter) {
+    return page(offset, parseFilter(filter));
+  }
 
-      @Override
-      public Integer inTransaction(SnapshotDao snapshotDao, TransactionStatus status) throws Exception {
-        snapshotDao.delete(snapshot);
-        return snapshotDao.insert(snapshot);
+  /**
+   * Writes every snapshot after {@code offset} as newline-delimited JSON, straight
+   * from the snapshot index. The last line is a {@link Snapshots} trailer with no
+   * versions whose {@code nextOffset} is the offset to resume from. If {@code until}
+   * is set, the stream stops at that id, so clients can read disjoint ranges of the
+   * delta in parallel.
+   */
+  @GET
+  @Path("/delta/stream")
+  @HeadETag
+  @Produces(NDJSON)
+  public StreamingOutput streamDelta(@QueryParam("offset") int offset, @QueryParam("until") Integer until) {
+    return stream(offset, until, null);
+  }
+
+  @POST
+  @Path("/delta/stream")
+  @HeadETag
+  @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+  @Produces(NDJSON)
+  public StreamingOutput streamFilteredDelta(@QueryParam("offset") int offset,
+                                             @QueryParam("until") Integer until,
+                                             byte[] filter) {
+    return stream(offset, until, parseFilter(filter));
+  }
+
+  /**
+   * Same as {@link #streamDelta(int, Integer)} but in the binary encoding from
+   * {@link SnapshotCodec}, for clients that ask for it.
+   */
+  @GET
+  @Path("/delta/stream")
+  @HeadETag
+  @Produces(BINARY)
+  public StreamingOutput streamBinaryDelta(@QueryParam("offset") int offset, @QueryParam("until") Integer until) {
+    return streamBinary(offset, until, null);
+  }
+
+  @POST
+  @Path("/delta/stream")
+  @HeadETag
+  @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+  @Produces(BINARY)
+  public StreamingOutput streamFilteredBinaryDelta(@QueryParam("offset") int offset,
+                                                   @QueryParam("until") Integer until,
+                                                   byte[] filter) {
+    return streamBinary(offset, until, parseFilter(filter));
+  }
+
+  @POST
+  public SnapshotVersion report(SnapshotVersionEgg snapshot) {
+    try {
+      return Uninterruptibles.getUninterruptibly(snapshotReporter.submit(snapshot), REPORT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new ServiceUnavailableException("Timed out storing snapshot");
+    }
+  }
+
+  /**
+   * Reports many snapshots in one call, returning one result per snapshot in
+   * request order. A failed snapshot doesn't fail the others.
+   */
+  @POST
+  @Path("/batch")
+  public List<SnapshotReportResult> reportBatch(List<SnapshotVersionEgg> snapshots) {
+    List<ListenableFuture<SnapshotVersion>> futures = new ArrayList<>(snapshots.size());
+    for (SnapshotVersionEgg snapshot : snapshots) {
+      futures.add(snapshotReporter.submit(snapshot));
+    }
+
+    long deadline = System.currentTimeMillis() + REPORT_TIMEOUT_MILLIS;
+    List<SnapshotReportResult> results = new ArrayList<>(futures.size());
+    for (ListenableFuture<SnapshotVersion> future : futures) {
+      try {
+        long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+        results.add(SnapshotReportResult.success(Uninterruptibles.getUninterruptibly(future, remaining, TimeUnit.MILLISECONDS)));
+      } catch (ExecutionException e) {
+        results.add(SnapshotReportResult.failure(String.valueOf(e.getCause().getMessage())));
+      } catch (TimeoutException e) {
+        results.add(SnapshotReportResult.failure("Timed out storing snapshot"));
+      }
+    }
+
+    return results;
+  }
+
+  private Snapshots page(int offset, BloomFilter filter) {
+    checkIndexLoaded();
+
+    List<SnapshotVersion> snapshots = new ArrayList<>();
+    int nextOffset = offset;
+    for (SnapshotVersion snapshot : snapshotIndex.after(offset)) {
+      if (snapshots.size() == SnapshotDao.PAGE_SIZE) {
+        return new Snapshots(snapshots, true, nextOffset);
       }
-    });
 
-    return new SnapshotVersion(
-            id,
-            snapshot.getGroupId(),
-            snapshot.getArtifactId(),
-            snapshot.getBaseVersion(),
-            snapshot.getResolvedVersion()
-    );
+      nextOffset = Math.max(nextOffset, snapshot.getId());
+      if (filter == null || filter.mightContain(snapshot)) {
+        snapshots.add(snapshot);
+      }
+    }
+
+    return new Snapshots(snapshots, false, nextOffset);
+  }
+
+  private StreamingOutput stream(final int offset, final Integer until, final BloomFilter filter) {
+    checkIndexLoaded();
+
+    return new StreamingOutput() {
+
+      @Override
+      public void write(OutputStream output) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(output);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+
+        int nextOffset = offset;
+        for (SnapshotVersion snapshot : range(offset, until)) {
+          nextOffset = Math.max(nextOffset, snapshot.getId());
+          if (filter == null || filter.mightContain(snapshot)) {
+            writeLine(generator, snapshot);
+          }
+        }
+
+        writeLine(generator, new Snapshots(Collections.<SnapshotVersion>emptyList(), false, nextOffset));
+        generator.close();
+      }
+    };
   }
 
-  private static int nextOffset(List<SnapshotVersion> snapshots, int previous) {
-    int offset = previous;
+  private StreamingOutput streamBinary(final int offset, final Integer until, final BloomFilter filter) {
+    checkIndexLoaded();
 
-    for (SnapshotVersion snapshot : snapshots) {
-      if (snapshot.getId() > offset) {
-        offset = snapshot.getId();
+    return new StreamingOutput() {
+
+      @Override
+      public void write(OutputStream output) throws IOException {
+        SnapshotCodec.Encoder encoder = SnapshotCodec.newEncoder(output);
+
+        int nextOffset = offset;
+        for (SnapshotVersion snapshot : range(offset, until)) {
+          nextOffset = Math.max(nextOffset, snapshot.getId());
+          if (filter == null || filter.mightContain(snapshot)) {
+            encoder.write(snapshot);
+          }
+        }
+
+        encoder.writeTrailer(false, nextOffset);
       }
+    };
+  }
+
+  private Collection<SnapshotVersion> range(int offset, Integer until) {
+    if (until == null) {
+      return snapshotIndex.after(offset);
+    } else if (until <= offset) {
+      return Collections.emptyList();
+    }
+
+    return snapshotIndex.between(offset, until);
+  }
+
+  private static BloomFilter parseFilter(byte[] filter) {
+    try {
+      return BloomFilter.fromBytes(filter);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
     }
+  }
+
+  private void checkIndexLoaded() {
+    if (!snapshotIndex.isLoaded()) {
+      throw new ServiceUnavailableException(INDEX_LOADING_RETRY_SECONDS);
+    }
+  }
 
-    return offset;
+  private static void writeLine(JsonGenerator generator, Object value) throws IOException {
+    generator.writeObject(value);
+    generator.writeRaw('\n');
   }
 }
@@ -0,0 +1,186 @@
+package com.hubspot.snapshots.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.Query;
+import org.skife.jdbi.v2.TransactionCallback;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.skife.jdbi.v2.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.hubspot.rosetta.jdbi.RosettaMapperFactory;
+import com.hubspot.snapshots.core.SnapshotVersion;
+import com.hubspot.snapshots.core.SnapshotVersionCore;
+import com.hubspot.snapshots.core.SnapshotVersionEgg;
+
+/**
+ * Coalesces reports into group-commit batches. Each batch is written in a single
+ * transaction: one select of the stored rows, one delete of the rows being replaced
+ * and one multi-row insert, so changed snapshots still get a new id and advance the
+ * feed. Reports that repeat the stored resolved version are not written at all.
+ */
+public class SnapshotWriter extends BatchingSnapshotReporter {
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotWriter.class);
+
+  private final DBI dbi;
+  private final SnapshotIndex snapshotIndex;
+
+  public SnapshotWriter(DBI dbi, SnapshotIndex snapshotIndex, SnapshotWriterConfiguration configuration) {
+    super(configuration, "snapshot-writer");
+    this.dbi = dbi;
+    this.snapshotIndex = snapshotIndex;
+  }
+
+  @Override
+  protected void writeBatch(List<PendingReport> batch) {
+    // later reports for the same coordinates win, earlier ones get the stored result
+    Map<String, SnapshotVersionEgg> newest = new LinkedHashMap<>();
+    Map<String, List<SettableFuture<SnapshotVersion>>> waiting = new HashMap<>();
+    for (PendingReport report : batch) {
+      String key = SnapshotIndex.key(report.getSnapshot());
+      newest.put(key, report.getSnapshot());
+      if (!waiting.containsKey(key)) {
+        waiting.put(key, new ArrayList<SettableFuture<SnapshotVersion>>());
+      }
+      waiting.get(key).add(report.getFuture());
+    }
+
+    try {
+      Map<String, SnapshotVersion> stored = write(newest.values());
+      for (Map.Entry<String, List<SettableFuture<SnapshotVersion>>> entry : waiting.entrySet()) {
+        SnapshotVersion snapshot = stored.get(entry.getKey());
+        for (SettableFuture<SnapshotVersion> future : entry.getValue()) {
+          future.set(snapshot);
+        }
+      }
+    } catch (Exception e) {
+      if (newest.size() == 1) {
+        fail(batch, e);
+      } else {
+        // isolate the bad report(s), everything else should still go through
+        LOG.warn("Error writing batch of {} snapshots, retrying individually", newest.size(), e);
+        for (PendingReport report : batch) {
+          writeBatch(Collections.singletonList(report));
+        }
+      }
+    }
+  }
+
+  private Map<String, SnapshotVersion> write(final Collection<SnapshotVersionEgg> snapshots) {
+    Map<String, SnapshotVersion> stored = dbi.inTransaction(new TransactionCallback<Map<String, SnapshotVersion>>() {
+
+      @Override
+      public Map<String, SnapshotVersion> inTransaction(Handle handle, TransactionStatus status) {
+        handle.registerMapper(new RosettaMapperFactory());
+
+        Map<String, SnapshotVersion> result = select(handle, snapshots);
+        List<SnapshotVersionEgg> changed = new ArrayList<>();
+        List<Integer> replaced = new ArrayList<>();
+        for (SnapshotVersionEgg snapshot : snapshots) {
+          SnapshotVersion existing = result.get(SnapshotIndex.key(snapshot));
+          if (existing == null) {
+            changed.add(snapshot);
+          } else if (!existing.getResolvedVersion().equals(snapshot.getResolvedVersion())) {
+            changed.add(snapshot);
+            replaced.add(existing.getId());
+          }
+        }
+
+        if (!changed.isEmpty()) {
+          delete(handle, replaced);
+          insert(handle, changed);
+          result.putAll(select(handle, changed));
+        }
+
+        return result;
+      }
+    });
+
+    for (SnapshotVersion snapshot : stored.values()) {
+      snapshotIndex.put(snapshot);
+    }
+
+    return stored;
+  }
+
+  private static Map<String, SnapshotVersion> select(Handle handle, Collection<? extends SnapshotVersionCore> snapshots) {
+    StringBuilder sql = new StringBuilder("SELECT * FROM latest_snapshots WHERE ");
+    int i = 0;
+    for (SnapshotVersionCore ignored : snapshots) {
+      if (i > 0) {
+        sql.append(" OR ");
+      }
+      sql.append("(groupId = :groupId").append(i)
+              .append(" AND artifactId = :artifactId").append(i)
+              .append(" AND baseVersion = :baseVersion").append(i).append(')');
+      i++;
+    }
+
+    Query<Map<String, Object>> query = handle.createQuery(sql.toString());
+    i = 0;
+    for (SnapshotVersionCore snapshot : snapshots) {
+      query.bind("groupId" + i, snapshot.getGroupId())
+              .bind("artifactId" + i, snapshot.getArtifactId())
+              .bind("baseVersion" + i, snapshot.getBaseVersion());
+      i++;
+    }
+
+    Map<String, SnapshotVersion> result = new HashMap<>();
+    for (SnapshotVersion snapshot : query.map(SnapshotVersion.class).list()) {
+      result.put(SnapshotIndex.key(snapshot), snapshot);
+    }
+
+    return result;
+  }
+
+  private static void delete(Handle handle, List<Integer> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    StringBuilder sql = new StringBuilder("DELETE FROM latest_snapshots WHERE id IN (");
+    for (int i = 0; i < ids.size(); i++) {
+      sql.append(i == 0 ? ":id" : ", :id").append(i);
+    }
+    sql.append(')');
+
+    Update update = handle.createStatement(sql.toString());
+    for (int i = 0; i < ids.size(); i++) {
+      update.bind("id" + i, ids.get(i));
+    }
+    update.execute();
+  }
+
+  private static void insert(Handle handle, List<SnapshotVersionEgg> snapshots) {
+    StringBuilder sql = new StringBuilder("INSERT INTO latest_snapshots (groupId, artifactId, baseVersion, resolvedVersion) VALUES ");
+    for (int i = 0; i < snapshots.size(); i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append("(:groupId").append(i)
+              .append(", :artifactId").append(i)
+              .append(", :baseVersion").append(i)
+              .append(", :resolvedVersion").append(i).append(')');
+    }
+
+    Update update = handle.createStatement(sql.toString());
+    for (int i = 0; i < snapshots.size(); i++) {
+      SnapshotVersionEgg snapshot = snapshots.get(i);
+      update.bind("groupId" + i, snapshot.getGroupId())
+              .bind("artifactId" + i, snapshot.getArtifactId())
+              .bind("baseVersion" + i, snapshot.getBaseVersion())
+              .bind("resolvedVersion" + i, snapshot.getResolvedVersion());
+    }
+    update.execute();
+  }
+}
@@ -0,0 +1,38 @@
+package com.hubspot.snapshots.api;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SnapshotWriterConfiguration {
+
+  @Min(1)
+  private int maxBatchSize = 100;
+
+  @Min(0)
+  private long maxDelayMillis = 5;
+
+  @JsonProperty
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  @JsonProperty
+  public void setMaxBatchSize(int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * How long the writer waits for more reports to join a batch once the first
+   * one has arrived.
+   */
+  @JsonProperty
+  public long getMaxDelayMillis() {
+    return maxDelayMillis;
+  }
+
+  @JsonProperty
+  public void setMaxDelayMillis(long maxDelayMillis) {
+    this.maxDelayMillis = maxDelayMillis;
+  }
+}
@@ -0,0 +1,45 @@
+package com.hubspot.snapshots.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.hubspot.snapshots.core.SnapshotCodec;
+import com.hubspot.snapshots.core.Snapshots;
+
+/**
+ * Writes {@link Snapshots} pages in the binary encoding for clients that ask for
+ * {@link SnapshotCodec#MEDIA_TYPE}.
+ */
+@Provider
+@Produces(SnapshotCodec.MEDIA_TYPE)
+public class SnapshotsMessageBodyWriter implements MessageBodyWriter<Snapshots> {
+
+  @Override
+  public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+    return Snapshots.class.isAssignableFrom(type);
+  }
+
+  @Override
+  public long getSize(Snapshots snapshots, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+    return -1;
+  }
+
+  @Override
+  public void writeTo(Snapshots snapshots,
+                      Class<?> type,
+                      Type genericType,
+                      Annotation[] annotations,
+                      MediaType mediaType,
+                      MultivaluedMap<String, Object> httpHeaders,
+                      OutputStream entityStream) throws IOException {
+    SnapshotCodec.writeSnapshots(snapshots, entityStream);
+  }
+}
@@ -0,0 +1,98 @@
+package com.hubspot.snapshots.api;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hubspot.snapshots.client.AcceleratorClient;
+import com.hubspot.snapshots.client.DeltaIterator;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Relay counterpart of {@link SnapshotIndexLoader}: fills the {@link SnapshotIndex}
+ * from an upstream accelerator's delta instead of the database, then keeps it
+ * converged by tailing the upstream delta.
+ */
+public class UpstreamFollower implements Managed {
+  private static final Logger LOG = LoggerFactory.getLogger(UpstreamFollower.class);
+
+  private final AcceleratorClient client;
+  private final SnapshotIndex snapshotIndex;
+  private final SnapshotIndexConfiguration configuration;
+  private final ScheduledExecutorService executor;
+  private volatile long syncedAt;
+
+  public UpstreamFollower(AcceleratorClient client, SnapshotIndex snapshotIndex, SnapshotIndexConfiguration configuration) {
+    this.client = client;
+    this.snapshotIndex = snapshotIndex;
+    this.configuration = configuration;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "upstream-follower");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.syncedAt = 0;
+  }
+
+  @Override
+  public void start() {
+    // try once before the connectors open so that a reachable upstream means no 503s
+    refresh();
+
+    long interval = configuration.getTailIntervalMillis();
+    executor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * How far behind upstream the index could be: the time since the start of the last
+   * refresh that read the upstream delta to the end, or -1 before the first one.
+   */
+  public long getLagMillis() {
+    long synced = syncedAt;
+    return synced == 0 ? -1 : System.currentTimeMillis() - synced;
+  }
+
+  void refresh() {
+    long start = System.currentTimeMillis();
+    try {
+      // upstream can add snapshots below its head when it picks up rows committed out
+      // of id order, so re-read the same overlap it does
+      int offset = Math.max(0, snapshotIndex.getHeadId() - configuration.getTailOverlap());
+      int count = 0;
+      try (DeltaIterator delta = client.getDelta(offset)) {
+        while (delta.hasNext()) {
+          snapshotIndex.put(delta.next());
+          count++;
+        }
+      }
+
+      if (!snapshotIndex.isLoaded()) {
+        snapshotIndex.markLoaded();
+        LOG.info("Loaded {} snapshots into index from upstream in {}ms", count, System.currentTimeMillis() - start);
+      }
+      syncedAt = start;
+    } catch (Exception e) {
+      LOG.error("Error following upstream accelerator, index is {}ms behind", getLagMillis(), e);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.hubspot.snapshots.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hubspot.snapshots.client.AcceleratorClient;
+import com.hubspot.snapshots.core.SnapshotReportResult;
+import com.hubspot.snapshots.core.SnapshotVersionEgg;
+
+/**
+ * Forwards reports to the upstream accelerator when relaying, one batch call per
+ * batch. What upstream stored goes into the local {@link SnapshotIndex} straight away,
+ * so nearby clients see a report without waiting for the next tail of the upstream
+ * delta.
+ */
+public class UpstreamReporter extends BatchingSnapshotReporter {
+  private static final Logger LOG = LoggerFactory.getLogger(UpstreamReporter.class);
+
+  private final AcceleratorClient client;
+  private final SnapshotIndex snapshotIndex;
+
+  public UpstreamReporter(AcceleratorClient client, SnapshotIndex snapshotIndex, SnapshotWriterConfiguration configuration) {
+    super(configuration, "upstream-reporter");
+    this.client = client;
+    this.snapshotIndex = snapshotIndex;
+  }
+
+  @Override
+  protected void writeBatch(List<PendingReport> batch) {
+    List<SnapshotVersionEgg> snapshots = new ArrayList<>(batch.size());
+    for (PendingReport report : batch) {
+      snapshots.add(report.getSnapshot());
+    }
+
+    List<SnapshotReportResult> results;
+    try {
+      results = client.reportBatch(snapshots);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Error forwarding batch of {} snapshots upstream", snapshots.size(), e);
+      fail(batch, e);
+      return;
+    }
+
+    for (int i = 0; i < batch.size(); i++) {
+      SnapshotReportResult result = results.get(i);
+      if (result.isSuccess()) {
+        snapshotIndex.put(result.getSnapshot());
+        batch.get(i).getFuture().set(result.getSnapshot());
+      } else {
+        batch.get(i).getFuture().setException(new IllegalStateException(result.getError()));
+      }
+    }
+  }
+}
@@ -2,13 +2,29 @@ package com.hubspot.snapshots.api;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -16,12 +32,24 @@ import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import com.google.common.base.Joiner;
+import com.google.common.io.ByteStreams;
 import com.hubspot.snapshots.client.AcceleratorClient;
+import com.hubspot.snapshots.core.BloomFilter;
+import com.hubspot.snapshots.core.DeltaSegment;
+import com.hubspot.snapshots.core.SegmentManifest;
+import com.hubspot.snapshots.core.SnapshotCodec;
+import com.hubspot.snapshots.core.SnapshotReportResult;
 import com.hubspot.snapshots.core.SnapshotVersion;
 import com.hubspot.snapshots.core.SnapshotVersionEgg;
+import com.hubspot.snapshots.core.Snapshots;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 import io.dropwizard.db.ManagedDataSource;
 import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
 import io.dropwizard.testing.ResourceHelpers;
 import io.dropwizard.testing.junit.DropwizardAppRule;
 
@@ -51,6 +79,9 @@ public class AcceleratorAcceptanceTest {
     try (Connection connection = dataSource.getConnection()) {
       connection.prepareStatement("TRUNCATE TABLE latest_snapshots").execute();
     }
+
+    AcceleratorService service = RULE.getApplication();
+    service.getSnapshotIndex().clear();
   }
 
   @AfterClass
@@ -112,6 +143,412 @@ public class AcceleratorAcceptanceTest {
     assertThat(actual.getResolvedVersion()).isEqualTo(third.getResolvedVersion());
   }
 
+  @Test
+  public void itIgnoresRepeatedReportOfStoredVersion() throws IOException {
+    SnapshotVersionEgg snapshot = nextSnapshot();
+    SnapshotVersion first = client.report(snapshot);
+    SnapshotVersion second = client.report(snapshot);
+
+    assertThat(second.getId()).isEqualTo(first.getId());
+    assertThat(second.getResolvedVersion()).isEqualTo(snapshot.getResolvedVersion());
+    assertThat(toList(client.getDelta(first.getId()))).isEmpty();
+  }
+
+  @Test
+  public void itReportsBatchWithResultPerSnapshot() throws IOException {
+    SnapshotVersionEgg first = new SnapshotVersionEgg("com.test", "batch-a", "0.1-SNAPSHOT", "0.1-20171129.222952-1");
+    SnapshotVersionEgg second = new SnapshotVersionEgg("com.test", "batch-b", "0.1-SNAPSHOT", "0.1-20171129.222952-1");
+
+    List<SnapshotReportResult> results = client.reportBatch(Arrays.asList(first, second));
+    assertThat(results).hasSize(2);
+    assertThat(results.get(0).isSuccess()).isTrue();
+    assertThat(results.get(0).getSnapshot().getArtifactId()).isEqualTo("batch-a");
+    assertThat(results.get(1).isSuccess()).isTrue();
+    assertThat(results.get(1).getSnapshot().getArtifactId()).isEqualTo("batch-b");
+
+    List<SnapshotVersion> snapshots = toList(client.getDelta(0));
+    assertThat(snapshots).hasSize(2);
+  }
+
+  @Test
+  public void itAnswersConditionalDeltaWithNotModified() throws IOException {
+    SnapshotVersion snapshot = client.report(nextSnapshot());
+    String etag = "W/\"" + snapshot.getId() + "\"";
+
+    HttpURLConnection connection = openDelta(0, null);
+    try {
+      assertThat(connection.getResponseCode()).isEqualTo(200);
+      assertThat(connection.getHeaderField("ETag")).isEqualTo(etag);
+    } finally {
+      connection.disconnect();
+    }
+
+    connection = openDelta(snapshot.getId(), etag);
+    try {
+      assertThat(connection.getResponseCode()).isEqualTo(304);
+    } finally {
+      connection.disconnect();
+    }
+
+    assertThat(toList(client.getDelta(snapshot.getId()))).isEmpty();
+  }
+
+  @Test
+  public void itOnlyAnswersConditionalGetsWithNotModified() throws IOException {
+    SnapshotVersion snapshot = client.report(nextSnapshot());
+    String etag = "W/\"" + snapshot.getId() + "\"";
+
+    BloomFilter filter = BloomFilter.create(1, 0.01);
+    filter.put(BloomFilter.coordinates(snapshot.getGroupId(), snapshot.getArtifactId(), snapshot.getBaseVersion()));
+
+    URL url = new URL(String.format("http://localhost:%d/accelerator/snapshots/delta/stream?offset=%d", RULE.getLocalPort(), snapshot.getId()));
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/octet-stream");
+    connection.setRequestProperty("Accept", SnapshotResource.NDJSON);
+    connection.setRequestProperty("If-None-Match", etag);
+    try {
+      try (OutputStream output = connection.getOutputStream()) {
+        output.write(filter.toBytes());
+      }
+
+      assertThat(connection.getResponseCode()).isEqualTo(200);
+      assertThat(connection.getHeaderField("ETag")).isEqualTo(etag);
+    } finally {
+      connection.disconnect();
+    }
+
+    assertThat(toList(client.getDelta(snapshot.getId(), filter))).isEmpty();
+  }
+
+  @Test
+  public void itReturnsResolvedVersionsThatArentTimestamped() throws IOException {
+    client.report(new SnapshotVersionEgg("com.test", "timestamped", "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+    client.report(new SnapshotVersionEgg("com.other", "custom", "0.1-SNAPSHOT", "0.1-custom-build"));
+
+    List<SnapshotVersion> snapshots = toList(client.getDelta(0));
+    assertThat(snapshots).hasSize(2);
+    assertThat(snapshots.get(0).getGroupId()).isEqualTo("com.test");
+    assertThat(snapshots.get(0).getResolvedVersion()).isEqualTo("0.1-20171129.222952-1");
+    assertThat(snapshots.get(1).getGroupId()).isEqualTo("com.other");
+    assertThat(snapshots.get(1).getResolvedVersion()).isEqualTo("0.1-custom-build");
+  }
+
+  @Test
+  public void itLeavesSnapshotsOutsideFilterOutOfDelta() throws IOException {
+    client.report(new SnapshotVersionEgg("com.test", "wanted", "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+    client.report(new SnapshotVersionEgg("com.test", "unwanted", "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+
+    BloomFilter filter = BloomFilter.create(1, 0.0001);
+    filter.put(BloomFilter.coordinates("com.test", "wanted", "0.1-SNAPSHOT"));
+
+    List<SnapshotVersion> snapshots = toList(client.getDelta(0, filter));
+    assertThat(snapshots).hasSize(1);
+    assertThat(snapshots.get(0).getArtifactId()).isEqualTo("wanted");
+  }
+
+  @Test
+  public void itStreamsDeltaLargerThanOnePage() throws IOException {
+    int count = SnapshotDao.PAGE_SIZE + SnapshotDao.PAGE_SIZE / 2;
+    for (int i = 0; i < count; i++) {
+      client.report(new SnapshotVersionEgg("com.test", "test-" + i, "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+    }
+
+    List<SnapshotVersion> snapshots = toList(client.getDelta(0));
+    assertThat(snapshots).hasSize(count);
+
+    int maxId = 0;
+    for (SnapshotVersion snapshot : snapshots) {
+      assertThat(snapshot.getId()).isGreaterThan(maxId);
+      maxId = snapshot.getId();
+    }
+
+    assertThat(toList(client.getDelta(maxId))).isEmpty();
+  }
+
+  @Test
+  public void itStopsStreamedDeltaAtUntil() throws IOException {
+    List<SnapshotVersion> reported = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      reported.add(client.report(new SnapshotVersionEgg("com.test", "range-" + i, "0.1-SNAPSHOT", "0.1-20171129.222952-1")));
+    }
+
+    int until = reported.get(1).getId();
+    URL url = new URL(String.format("http://localhost:%d/accelerator/snapshots/delta/stream?offset=0&until=%d", RULE.getLocalPort(), until));
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestProperty("Accept", SnapshotResource.NDJSON);
+
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      connection.disconnect();
+    }
+
+    assertThat(lines).hasSize(3);
+    assertThat(RULE.getObjectMapper().readValue(lines.get(1), SnapshotVersion.class).getArtifactId()).isEqualTo("range-1");
+    assertThat(RULE.getObjectMapper().readValue(lines.get(2), Snapshots.class).getNextOffset()).isEqualTo(until);
+  }
+
+  @Test
+  public void itServesDeltaForRowsWrittenByOtherNodes() throws Exception {
+    try (Connection connection = dataSource.getConnection()) {
+      connection.prepareStatement(
+              "INSERT INTO latest_snapshots (groupId, artifactId, baseVersion, resolvedVersion) " +
+              "VALUES ('com.test', 'other-node', '0.1-SNAPSHOT', '0.1-20171129.222952-1')"
+      ).execute();
+    }
+
+    AcceleratorService service = RULE.getApplication();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (service.getSnapshotIndex().size() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+
+    List<SnapshotVersion> snapshots = toList(client.getDelta(0));
+    assertThat(snapshots).hasSize(1);
+    assertThat(snapshots.get(0).getArtifactId()).isEqualTo("other-node");
+  }
+
+  @Test
+  public void itExportsFullSegmentsOfTheDelta() throws IOException {
+    for (int i = 0; i < 5; i++) {
+      client.report(new SnapshotVersionEgg("com.test", "segment-" + i, "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+    }
+
+    Path directory = Files.createTempDirectory("accelerator-segments");
+    SegmentExporterConfiguration configuration = new SegmentExporterConfiguration();
+    configuration.setDirectory(directory.toString());
+    configuration.setSegmentSize(2);
+
+    AcceleratorService service = RULE.getApplication();
+    SegmentExporter exporter = new SegmentExporter(service.getSnapshotIndex(), RULE.getObjectMapper(), configuration, 0);
+    exporter.export();
+
+    SegmentManifest manifest = RULE.getObjectMapper().readValue(directory.resolve(SegmentManifest.FILENAME).toFile(), SegmentManifest.class);
+    assertThat(manifest.getSegments()).hasSize(2);
+
+    List<SnapshotVersion> exported = new ArrayList<>();
+    for (DeltaSegment segment : manifest.getSegments()) {
+      try (GZIPInputStream input = new GZIPInputStream(Files.newInputStream(directory.resolve(segment.getFile())))) {
+        Snapshots snapshots = SnapshotCodec.readSnapshots(input);
+        assertThat(snapshots.getVersions()).hasSize(2);
+        assertThat(snapshots.getNextOffset()).isEqualTo(segment.getEndOffset());
+        exported.addAll(snapshots.getVersions());
+      }
+    }
+
+    assertThat(exported.get(0).getArtifactId()).isEqualTo("segment-0");
+    assertThat(exported.get(3).getArtifactId()).isEqualTo("segment-3");
+    assertThat(toList(client.getDelta(manifest.getNextOffset()))).hasSize(1);
+  }
+
+  @Test
+  public void itRelaysDeltaAndReportsFromUpstream() throws Exception {
+    client.report(new SnapshotVersionEgg("com.test", "upstream", "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+
+    DropwizardTestSupport<AcceleratorConfiguration> relay = new DropwizardTestSupport<>(
+            AcceleratorService.class,
+            ResourceHelpers.resourceFilePath("test.yaml"),
+            ConfigOverride.config("server.connector.port", "0"),
+            ConfigOverride.config("relay.upstreamUrl", String.format("http://localhost:%d/accelerator", RULE.getLocalPort()))
+    );
+    relay.before();
+    try {
+      AcceleratorClient relayClient = AcceleratorClient.withBaseUrl(String.format("http://localhost:%d/accelerator", relay.getLocalPort()));
+
+      List<SnapshotVersion> relayed = toList(relayClient.getDelta(0));
+      assertThat(relayed).hasSize(1);
+      assertThat(relayed.get(0).getArtifactId()).isEqualTo("upstream");
+
+      SnapshotVersion reported = relayClient.report(new SnapshotVersionEgg("com.test", "relay", "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+      assertThat(toList(client.getDelta(reported.getId() - 1)).get(0).getArtifactId()).isEqualTo("relay");
+      assertThat(toList(relayClient.getDelta(reported.getId() - 1)).get(0).getArtifactId()).isEqualTo("relay");
+    } finally {
+      relay.after();
+    }
+  }
+
+  @Test
+  public void itWritesNextOffsetAheadOfVersionsInPages() throws IOException {
+    client.report(nextSnapshot());
+
+    HttpURLConnection connection = openDelta(0, null);
+    connection.setRequestProperty("Accept", "application/json");
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      String page = reader.readLine();
+      assertThat(page.indexOf("\"hasMore\"")).isLessThan(page.indexOf("\"versions\""));
+      assertThat(page.indexOf("\"nextOffset\"")).isLessThan(page.indexOf("\"versions\""));
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  @Test
+  public void itWritesNextOffsetAheadOfVersionsInBinaryPages() throws IOException {
+    SnapshotVersion reported = client.report(nextSnapshot());
+
+    HttpURLConnection connection = openDelta(reported.getId() - 1, null);
+    connection.setRequestProperty("Accept", SnapshotCodec.MEDIA_TYPE);
+    try (InputStream input = connection.getInputStream()) {
+      SnapshotCodec.Decoder decoder = SnapshotCodec.newDecoder(input);
+      assertThat(decoder.isPageKnown()).isTrue();
+      assertThat(decoder.hasMore()).isFalse();
+      assertThat(decoder.getNextOffset()).isEqualTo(reported.getId());
+      assertThat(decoder.next().getId()).isEqualTo(reported.getId());
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  @Test
+  public void itFailsOverAndHedgesAcrossReplicas() throws Exception {
+    SnapshotVersion reported = client.report(nextSnapshot());
+
+    final AtomicInteger failingCalls = new AtomicInteger();
+    final AtomicInteger slowCalls = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    HttpServer failing = startServer(executor, new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        failingCalls.incrementAndGet();
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+      }
+    });
+    HttpServer slow = startServer(executor, new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        slowCalls.incrementAndGet();
+        try {
+          release.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+      }
+    });
+
+    try {
+      String replicas = Joiner.on(',').join(
+              baseUrl(failing.getAddress().getPort()),
+              baseUrl(slow.getAddress().getPort()),
+              baseUrl(RULE.getLocalPort())
+      );
+
+      long start = System.currentTimeMillis();
+      List<SnapshotVersion> snapshots = toList(AcceleratorClient.withBaseUrl(replicas).getDelta(reported.getId() - 1));
+      assertThat(snapshots).hasSize(1);
+      assertThat(snapshots.get(0).getId()).isEqualTo(reported.getId());
+      // hedged after the default delay rather than waiting on the slow replica
+      assertThat(System.currentTimeMillis() - start).isLessThan(TimeUnit.SECONDS.toMillis(10));
+      assertThat(failingCalls.get()).isEqualTo(1);
+      assertThat(slowCalls.get()).isEqualTo(1);
+
+      // a new client for the same replicas knows the first one failed
+      snapshots = toList(AcceleratorClient.withBaseUrl(replicas).getDelta(reported.getId() - 1));
+      assertThat(snapshots).hasSize(1);
+      assertThat(failingCalls.get()).isEqualTo(1);
+    } finally {
+      release.countDown();
+      failing.stop(0);
+      slow.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void itFetchesLargeDeltasAsRangesInOrder() throws IOException {
+    List<Integer> reported = reportDistinctSnapshots(23);
+
+    AcceleratorClient rangedClient = AcceleratorClient.withBaseUrl(baseUrl(RULE.getLocalPort()), null, 3, 2);
+    assertThat(ids(toList(rangedClient.getDelta(0)))).isEqualTo(reported);
+    assertThat(ids(toList(rangedClient.getDelta(reported.get(4))))).isEqualTo(reported.subList(5, reported.size()));
+  }
+
+  @Test
+  public void itKeepsRangesInOrderWhenTheApiIgnoresUntil() throws Exception {
+    List<Integer> reported = reportDistinctSnapshots(23);
+
+    final AtomicInteger rangeCalls = new AtomicInteger();
+    ExecutorService executor = Executors.newCachedThreadPool();
+    // like an API that predates ranges, every request gets the rest of the delta
+    HttpServer proxy = startServer(executor, new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query.contains("until=")) {
+          rangeCalls.incrementAndGet();
+        }
+
+        URL url = new URL(String.format(
+                "http://localhost:%d%s?%s",
+                RULE.getLocalPort(),
+                exchange.getRequestURI().getRawPath(),
+                query.replaceAll("&until=[0-9]+", "")
+        ));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Accept", exchange.getRequestHeaders().getFirst("Accept"));
+        try {
+          int code = connection.getResponseCode();
+          for (String header : Arrays.asList("Content-Type", "ETag")) {
+            if (connection.getHeaderField(header) != null) {
+              exchange.getResponseHeaders().set(header, connection.getHeaderField(header));
+            }
+          }
+          exchange.sendResponseHeaders(code, 0);
+          try (InputStream input = code == 200 ? connection.getInputStream() : connection.getErrorStream();
+               OutputStream output = exchange.getResponseBody()) {
+            ByteStreams.copy(input, output);
+          }
+        } finally {
+          connection.disconnect();
+          exchange.close();
+        }
+      }
+    });
+
+    try {
+      AcceleratorClient rangedClient = AcceleratorClient.withBaseUrl(baseUrl(proxy.getAddress().getPort()), null, 3, 2);
+      assertThat(ids(toList(rangedClient.getDelta(0)))).isEqualTo(reported);
+      assertThat(rangeCalls.get()).isGreaterThan(1);
+    } finally {
+      proxy.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  private static HttpServer startServer(ExecutorService executor, HttpHandler handler) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", handler);
+    server.setExecutor(executor);
+    server.start();
+    return server;
+  }
+
+  private static String baseUrl(int port) {
+    return String.format("http://localhost:%d/accelerator", port);
+  }
+
+  private static HttpURLConnection openDelta(int offset, String ifNoneMatch) throws IOException {
+    URL url = new URL(String.format("http://localhost:%d/accelerator/snapshots/delta?offset=%d", RULE.getLocalPort(), offset));
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    if (ifNoneMatch != null) {
+      connection.setRequestProperty("If-None-Match", ifNoneMatch);
+    }
+
+    return connection;
+  }
+
   private static SnapshotVersionEgg nextSnapshot() {
     return new SnapshotVersionEgg(
             "com.test",
@@ -121,6 +558,24 @@ public class AcceleratorAcceptanceTest {
     );
   }
 
+  private static List<Integer> reportDistinctSnapshots(int count) throws IOException {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ids.add(client.report(new SnapshotVersionEgg("com.test", "range-" + i, "0.1-SNAPSHOT", "0.1-20171129.222952-1")).getId());
+    }
+
+    return ids;
+  }
+
+  private static List<Integer> ids(List<SnapshotVersion> snapshots) {
+    List<Integer> ids = new ArrayList<>();
+    for (SnapshotVersion snapshot : snapshots) {
+      ids.add(snapshot.getId());
+    }
+
+    return ids;
+  }
+
   private static <T> List<T> toList(Iterator<T> iterator) {
     List<T> list = new ArrayList<>();
     while (iterator.hasNext()) {
@@ -0,0 +1,71 @@
+package com.hubspot.snapshots;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+/**
+ * Applying a delta to the accelerator index, which is what the extension does at the
+ * start of every build. Every snapshot in the delta is already in the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeltaApplyBenchmark {
+  private static final int ARTIFACTS = 10000;
+
+  @Param({ "100", "1000", "10000" })
+  public int deltaSize;
+
+  private SyntheticLocalRepository repository;
+  private AcceleratorIndex index;
+  private List<SnapshotVersion> delta;
+  private int nextId;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    repository = SyntheticLocalRepository.create(ARTIFACTS);
+    index = repository.openIndex();
+    nextId = ARTIFACTS;
+  }
+
+  @Setup(Level.Invocation)
+  public void nextDelta() {
+    // the index ignores ids it has already seen, so every invocation gets new ones
+    delta = new ArrayList<>(deltaSize);
+    for (int i = 0; i < deltaSize; i++) {
+      delta.add(repository.snapshot(i % ARTIFACTS, ++nextId));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws IOException {
+    index.close();
+    repository.delete();
+  }
+
+  @Benchmark
+  public int applyDelta() {
+    return AcceleratorUpdater.applyDelta(index, delta.iterator(), 0);
+  }
+}
@@ -0,0 +1,71 @@
+package com.hubspot.snapshots;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.metadata.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The check the extension makes for every snapshot dependency in a build, cycling
+ * through all of the artifacts in the local repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShouldSkipUpdateBenchmark {
+
+  @Param({ "1000", "10000", "100000" })
+  public int artifacts;
+
+  private StubAcceleratorApi api;
+  private SyntheticLocalRepository repository;
+  private RepositorySystemSession session;
+  private Metadata[] metadata;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    api = StubAcceleratorApi.start();
+    repository = SyntheticLocalRepository.create(artifacts);
+
+    metadata = new Metadata[artifacts];
+    for (int i = 0; i < artifacts; i++) {
+      metadata[i] = repository.metadata(i);
+    }
+
+    // sync with the accelerator outside of the measurement
+    session = repository.newSession();
+    AcceleratorUpdater.INSTANCE.isHealthy(session);
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws IOException {
+    repository.delete();
+    api.close();
+  }
+
+  @Benchmark
+  public boolean shouldSkipUpdate() {
+    Metadata current = metadata[next];
+    next = (next + 1) % metadata.length;
+
+    return AcceleratorHelper.INSTANCE.shouldSkipUpdate(session, current, repository.getRemoteRepository());
+  }
+}
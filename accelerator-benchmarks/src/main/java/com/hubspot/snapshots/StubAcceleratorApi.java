@@ -0,0 +1,44 @@
+package com.hubspot.snapshots;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Accelerator API that always says nothing has changed, so that the extension
+ * considers itself healthy without any network dependency. Has to be started before
+ * anything loads the client, since the client reads its url once.
+ */
+public class StubAcceleratorApi implements Closeable {
+  private final HttpServer server;
+
+  private StubAcceleratorApi(HttpServer server) {
+    this.server = server;
+  }
+
+  public static StubAcceleratorApi start() throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+
+    System.setProperty("accelerator.url", "http://localhost:" + server.getAddress().getPort() + "/accelerator");
+    System.setProperty("accelerator.deltaFilter", "false");
+    return new StubAcceleratorApi(server);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,155 @@
+package com.hubspot.snapshots;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.internal.impl.SimpleLocalRepositoryManagerFactory;
+import org.eclipse.aether.metadata.DefaultMetadata;
+import org.eclipse.aether.metadata.Metadata;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.NoLocalRepositoryManagerException;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+/**
+ * Local Maven repository on disk with a snapshot of each of {@code artifacts}
+ * artifacts, each with remote metadata and an entry in the accelerator index that
+ * is synced up to {@code artifacts}. Every other artifact has an index entry that is
+ * newer than its metadata.
+ */
+public class SyntheticLocalRepository {
+  public static final String REMOTE_REPOSITORY_ID = "benchmark";
+  public static final String BASE_VERSION = "1.0-SNAPSHOT";
+
+  private static final int GROUPS = 100;
+  private static final String METADATA_TIMESTAMP = "20171129.222952";
+  private static final String NEWER_TIMESTAMP = "20171130.101010";
+
+  private final Path basedir;
+  private final LocalRepository localRepository;
+  private final RemoteRepository remoteRepository;
+  private final int artifacts;
+
+  private SyntheticLocalRepository(Path basedir, int artifacts) {
+    this.basedir = basedir;
+    this.localRepository = new LocalRepository(basedir.toFile());
+    this.remoteRepository = new RemoteRepository.Builder(REMOTE_REPOSITORY_ID, "default", "http://localhost/").build();
+    this.artifacts = artifacts;
+  }
+
+  public static SyntheticLocalRepository create(int artifacts) throws IOException {
+    SyntheticLocalRepository repository = new SyntheticLocalRepository(Files.createTempDirectory("accelerator-benchmark"), artifacts);
+    try (AcceleratorIndex index = repository.openIndex()) {
+      for (int i = 0; i < artifacts; i++) {
+        repository.write(i, index);
+      }
+      index.checkpoint(artifacts);
+    }
+
+    return repository;
+  }
+
+  /**
+   * A new repository session using this local repository, like the one Maven creates
+   * for each build.
+   */
+  public RepositorySystemSession newSession() {
+    DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+    try {
+      session.setLocalRepositoryManager(new SimpleLocalRepositoryManagerFactory().newInstance(session, localRepository));
+    } catch (NoLocalRepositoryManagerException e) {
+      throw new RuntimeException(e);
+    }
+
+    return session;
+  }
+
+  public AcceleratorIndex openIndex() throws IOException {
+    Path path = AcceleratorUtils.INSTANCE.acceleratorIndexPath(localRepository);
+    AcceleratorIndex index = AcceleratorIndex.open(path, 0);
+    if (index == null) {
+      throw new IOException("Accelerator index " + path + " is locked by another process");
+    }
+    return index;
+  }
+
+  public LocalRepository getLocalRepository() {
+    return localRepository;
+  }
+
+  public RemoteRepository getRemoteRepository() {
+    return remoteRepository;
+  }
+
+  public int getArtifacts() {
+    return artifacts;
+  }
+
+  public Metadata metadata(int artifact) {
+    return new DefaultMetadata(groupId(artifact), artifactId(artifact), BASE_VERSION, "maven-metadata.xml", Metadata.Nature.SNAPSHOT);
+  }
+
+  public SnapshotVersion snapshot(int artifact, int id) {
+    return snapshot(artifact, id, NEWER_TIMESTAMP);
+  }
+
+  private SnapshotVersion snapshot(int artifact, int id, String timestamp) {
+    return new SnapshotVersion(id, groupId(artifact), artifactId(artifact), BASE_VERSION, "1.0-" + timestamp + "-" + id);
+  }
+
+  public void delete() throws IOException {
+    Files.walkFileTree(basedir, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void write(int artifact, AcceleratorIndex index) throws IOException {
+    Path dir = basedir;
+    for (String part : groupId(artifact).split("\\.")) {
+      dir = dir.resolve(part);
+    }
+    dir = Files.createDirectories(dir.resolve(artifactId(artifact)).resolve(BASE_VERSION));
+
+    Files.write(dir.resolve("maven-metadata-" + REMOTE_REPOSITORY_ID + ".xml"), Collections.singletonList(
+            "<metadata>" +
+              "<groupId>" + groupId(artifact) + "</groupId>" +
+              "<artifactId>" + artifactId(artifact) + "</artifactId>" +
+              "<version>" + BASE_VERSION + "</version>" +
+              "<versioning>" +
+                "<snapshot><timestamp>" + METADATA_TIMESTAMP + "</timestamp><buildNumber>1</buildNumber></snapshot>" +
+                "<lastUpdated>20171129222952</lastUpdated>" +
+              "</versioning>" +
+            "</metadata>"
+    ), StandardCharsets.UTF_8);
+
+    index.put(snapshot(artifact, artifact + 1, artifact % 2 == 0 ? METADATA_TIMESTAMP : NEWER_TIMESTAMP));
+  }
+
+  private static String groupId(int artifact) {
+    return "com.hubspot.benchmark" + (artifact % GROUPS);
+  }
+
+  private static String artifactId(int artifact) {
+    return "artifact-" + artifact;
+  }
+}
@@ -0,0 +1,68 @@
+package com.hubspot.snapshots.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.skife.jdbi.v2.ResultIterator;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+/**
+ * {@link SnapshotDao} over a list of snapshots sorted by id, so that the service can
+ * be benchmarked without a database.
+ */
+public class InMemorySnapshotDao implements SnapshotDao {
+  private final List<SnapshotVersion> snapshots;
+
+  public InMemorySnapshotDao(List<SnapshotVersion> snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  @Override
+  public List<SnapshotVersion> getDelta(int offset) {
+    int start = indexAfter(offset);
+    return new ArrayList<>(snapshots.subList(start, Math.min(snapshots.size(), start + PAGE_SIZE)));
+  }
+
+  @Override
+  public ResultIterator<SnapshotVersion> streamDelta(int offset) {
+    final Iterator<SnapshotVersion> iterator = snapshots.subList(indexAfter(offset), snapshots.size()).iterator();
+
+    return new ResultIterator<SnapshotVersion>() {
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public SnapshotVersion next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("remove");
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  private int indexAfter(int offset) {
+    int low = 0;
+    int high = snapshots.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (snapshots.get(mid).getId() <= offset) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+}
@@ -0,0 +1,97 @@
+package com.hubspot.snapshots.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hubspot.snapshots.core.SnapshotVersion;
+import com.hubspot.snapshots.core.Snapshots;
+
+/**
+ * The delta endpoints, with the snapshot index loaded from an in-memory DAO. The
+ * offset is either the start of the table or one page below the head.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotResourceBenchmark {
+  private static final int SNAPSHOTS = 100000;
+
+  @Param({ "0", "99000" })
+  public int offset;
+
+  private SnapshotResource resource;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    List<SnapshotVersion> snapshots = new ArrayList<>(SNAPSHOTS);
+    for (int i = 0; i < SNAPSHOTS; i++) {
+      snapshots.add(new SnapshotVersion(
+              i + 1,
+              "com.hubspot.benchmark" + (i % 100),
+              "artifact-" + i,
+              "1.0-SNAPSHOT",
+              "1.0-20171129.222952-" + i
+      ));
+    }
+
+    SnapshotIndex snapshotIndex = new SnapshotIndex();
+    new SnapshotIndexLoader(new InMemorySnapshotDao(snapshots), snapshotIndex, new SnapshotIndexConfiguration()).refresh();
+
+    // the writer is only used for reports
+    resource = new SnapshotResource(snapshotIndex, null, new ObjectMapper());
+  }
+
+  @Benchmark
+  public Snapshots getDelta() {
+    return resource.getDelta(offset);
+  }
+
+  @Benchmark
+  public void streamDelta(Blackhole blackhole) throws IOException {
+    resource.streamDelta(offset, null).write(new BlackholeOutputStream(blackhole));
+  }
+
+  @Benchmark
+  public void streamBinaryDelta(Blackhole blackhole) throws IOException {
+    resource.streamBinaryDelta(offset, null).write(new BlackholeOutputStream(blackhole));
+  }
+
+  private static class BlackholeOutputStream extends OutputStream {
+    private final Blackhole blackhole;
+
+    private BlackholeOutputStream(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(int b) {
+      blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      blackhole.consume(b);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.hubspot.snapshots.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotVersionBenchmark {
+  private final SnapshotVersion snapshot = new SnapshotVersion(
+          1,
+          "com.hubspot.benchmark",
+          "artifact",
+          "1.0-SNAPSHOT",
+          "1.0-20171129.222952-1"
+  );
+
+  @Benchmark
+  public String getTimestamp() {
+    return snapshot.getTimestamp();
+  }
+}
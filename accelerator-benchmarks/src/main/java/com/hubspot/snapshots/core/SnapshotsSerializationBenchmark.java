@@ -0,0 +1,89 @@
+package com.hubspot.snapshots.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writing and reading a page of the delta, as JSON with an object mapper configured
+ * like the client's, and with {@link SnapshotCodec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotsSerializationBenchmark {
+
+  @Param({ "1000" })
+  public int size;
+
+  private ObjectMapper mapper;
+  private Snapshots snapshots;
+  private byte[] json;
+  private byte[] binary;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    List<SnapshotVersion> versions = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      versions.add(new SnapshotVersion(
+              i + 1,
+              "com.hubspot.benchmark" + (i % 100),
+              "artifact-" + i,
+              "1.0-SNAPSHOT",
+              "1.0-20171129.222952-" + i
+      ));
+    }
+    snapshots = new Snapshots(versions, true, size);
+
+    json = mapper.writeValueAsBytes(snapshots);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SnapshotCodec.writeSnapshots(snapshots, output);
+    binary = output.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] serializeJson() throws IOException {
+    return mapper.writeValueAsBytes(snapshots);
+  }
+
+  @Benchmark
+  public Snapshots deserializeJson() throws IOException {
+    return mapper.readValue(json, Snapshots.class);
+  }
+
+  @Benchmark
+  public byte[] encodeBinary() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(binary.length);
+    SnapshotCodec.writeSnapshots(snapshots, output);
+    return output.toByteArray();
+  }
+
+  @Benchmark
+  public Snapshots decodeBinary() throws IOException {
+    return SnapshotCodec.readSnapshots(new ByteArrayInputStream(binary));
+  }
+}
@@ -1,24 +1,66 @@
 package com.hubspot.snapshots.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hubspot.snapshots.core.BloomFilter;
+import com.hubspot.snapshots.core.DeltaSegment;
+import com.hubspot.snapshots.core.SegmentManifest;
+import com.hubspot.snapshots.core.SnapshotCodec;
+import com.hubspot.snapshots.core.SnapshotReportResult;
 import com.hubspot.snapshots.core.SnapshotVersion;
 import com.hubspot.snapshots.core.SnapshotVersionEgg;
-import com.hubspot.snapshots.core.Snapshots;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSource;
 
 public class AcceleratorClient {
   private static final String DETECTED_BASE_URL = detectBaseUrl();
+  private static final String DETECTED_SEGMENTS_URL = detectSegmentsUrl();
+  private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+  private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+  // APIs that predate the binary encoding ignore this and send JSON
+  private static final String PAGE_ACCEPT = SnapshotCodec.MEDIA_TYPE + ", application/json;q=0.5";
+  private static final String STREAM_ACCEPT = SnapshotCodec.MEDIA_TYPE + ", application/x-ndjson;q=0.5";
+  private static final TypeReference<List<SnapshotReportResult>> REPORT_RESULTS = new TypeReference<List<SnapshotReportResult>>() {};
+  // deltas spanning more than two ranges of ids are fetched a range per request, with
+  // up to parallelRanges requests in flight
+  private static final int DEFAULT_RANGE_SIZE = Integer.getInteger("accelerator.rangeSize", 20000);
+  private static final int DEFAULT_PARALLEL_RANGES = Integer.getInteger("accelerator.parallelRanges", 4);
+  private static final String REPORT_PATH = "/snapshots";
+  private static final String REPORT_BATCH_PATH = "/snapshots/batch";
+  private static final String DELTA_PATH = "/snapshots/delta";
+  private static final String DELTA_STREAM_PATH = "/snapshots/delta/stream";
 
   private static String detectBaseUrl() {
     String acceleratorUrl = System.getProperty("accelerator.url");
@@ -29,14 +71,34 @@ public class AcceleratorClient {
     return System.getenv("ACCELERATOR_URL");
   }
 
-  private final String reportUrl;
-  private final String deltaUrl;
+  private static String detectSegmentsUrl() {
+    String segmentsUrl = System.getProperty("accelerator.segmentsUrl");
+    if (segmentsUrl != null) {
+      return segmentsUrl;
+    }
+
+    return System.getenv("ACCELERATOR_SEGMENTS_URL");
+  }
+
+  private final ReplicaSet replicas;
+  private final String segmentsUrl;
   private final OkHttpClient client;
   private final ObjectMapper mapper;
+  private final int rangeSize;
+  private final int parallelRanges;
+  private final ExecutorService executor;
+
+  private AcceleratorClient(String baseUrl, String segmentsUrl, int rangeSize, int parallelRanges) {
+    if (rangeSize < 1) {
+      throw new IllegalArgumentException("Range size must be positive, got " + rangeSize);
+    } else if (parallelRanges < 1) {
+      throw new IllegalArgumentException("Parallel ranges must be positive, got " + parallelRanges);
+    }
 
-  private AcceleratorClient(String baseUrl) {
-    this.reportUrl = baseUrl + "/snapshots";
-    this.deltaUrl = baseUrl + "/snapshots/delta";
+    this.replicas = ReplicaSet.forBaseUrls(baseUrl);
+    this.segmentsUrl = segmentsUrl;
+    this.rangeSize = rangeSize;
+    this.parallelRanges = parallelRanges;
     this.client = new OkHttpClient.Builder()
             .followRedirects(false)
             .followSslRedirects(false)
@@ -44,37 +106,111 @@ public class AcceleratorClient {
             .readTimeout(15, TimeUnit.SECONDS)
             .build();
     this.mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    this.executor = newExecutor(parallelRanges);
+  }
+
+  private static ExecutorService newExecutor(int parallelRanges) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        parallelRanges,
+        parallelRanges,
+        30,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "accelerator-client-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        }
+    );
+    // the client is usually used for one sync, don't keep threads around after it
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   public static AcceleratorClient detectingBaseUrl() {
     if (DETECTED_BASE_URL == null) {
       throw new IllegalStateException("Unable to detect base url, set ACCELERATOR_URL environment variable or accelerator.url system property");
     }
-    return withBaseUrl(DETECTED_BASE_URL);
+    return withBaseUrl(DETECTED_BASE_URL, DETECTED_SEGMENTS_URL);
   }
 
+  /**
+   * @param baseUrl the API's base url, or a comma-separated list of replicas to use in
+   *                order of preference
+   */
   public static AcceleratorClient withBaseUrl(String baseUrl) {
-    return new AcceleratorClient(baseUrl);
+    return withBaseUrl(baseUrl, null);
+  }
+
+  /**
+   * @param baseUrl     the API's base url, or a comma-separated list of replicas to use
+   *                    in order of preference
+   * @param segmentsUrl where the API's exported delta segments are served from, or
+   *                    null if they aren't
+   */
+  public static AcceleratorClient withBaseUrl(String baseUrl, String segmentsUrl) {
+    return withBaseUrl(baseUrl, segmentsUrl, DEFAULT_RANGE_SIZE, DEFAULT_PARALLEL_RANGES);
+  }
+
+  /**
+   * Same as {@link #withBaseUrl(String, String)}, but with the size of the id ranges
+   * large deltas are split into and how many of them are fetched at once. The defaults
+   * come from the accelerator.rangeSize and accelerator.parallelRanges system properties.
+   */
+  public static AcceleratorClient withBaseUrl(String baseUrl, String segmentsUrl, int rangeSize, int parallelRanges) {
+    return new AcceleratorClient(baseUrl, segmentsUrl, rangeSize, parallelRanges);
   }
 
   public static String detectedDeltaUrl() {
-    return DETECTED_BASE_URL + "/snapshots/delta";
+    if (DETECTED_BASE_URL == null) {
+      return null;
+    }
+
+    StringBuilder deltaUrls = new StringBuilder();
+    for (String baseUrl : ReplicaSet.parse(DETECTED_BASE_URL)) {
+      if (deltaUrls.length() > 0) {
+        deltaUrls.append(", ");
+      }
+      deltaUrls.append(baseUrl).append(DELTA_PATH);
+    }
+
+    return deltaUrls.toString();
   }
 
-  public Iterator<SnapshotVersion> getDelta(int offset) {
-    return new SnapshotIterator(offset);
+  public DeltaIterator getDelta(int offset) {
+    return getDelta(offset, null);
   }
 
-  public SnapshotVersion report(SnapshotVersionEgg snapshot) throws IOException {
-    MediaType mediaTye = MediaType.parse("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(mediaTye, mapper.writeValueAsString(snapshot));
+  /**
+   * Returns the delta after {@code offset}, leaving out snapshots that aren't in
+   * {@code filter} if the API supports it. A null filter returns every snapshot.
+   */
+  public DeltaIterator getDelta(int offset, BloomFilter filter) {
+    return new StreamingSnapshotIterator(offset, filter);
+  }
 
-    Request request = new Request.Builder()
-            .url(reportUrl)
-            .post(body)
-            .build();
+  /**
+   * Same as {@link #getDelta(int, BloomFilter)}, but reads as much of the delta as it
+   * can from exported segments before switching to the API. Segments are large, so
+   * this is meant for clients that are far behind.
+   */
+  public DeltaIterator getDeltaFromSegments(int offset, BloomFilter filter) {
+    if (segmentsUrl == null) {
+      return getDelta(offset, filter);
+    }
+
+    return new SegmentSnapshotIterator(offset, filter);
+  }
 
-    Response response = client.newCall(request).execute();
+  public SnapshotVersion report(SnapshotVersionEgg snapshot) throws IOException {
+    // single reports are what old APIs get a batch split into, hedging each of those
+    // would double the calls for no gain, so only fail over
+    Response response = execute(postRequests(REPORT_PATH, mapper.writeValueAsString(snapshot)), false);
     if (response.code() != 200) {
       throw new IOException("Unexpected response code from accelerator API: " + response.code());
     }
@@ -82,37 +218,384 @@ public class AcceleratorClient {
     return mapper.readValue(response.body().byteStream(), SnapshotVersion.class);
   }
 
-  private Snapshots getSinglePage(int offset) throws IOException {
+  /**
+   * Reports all of the snapshots in a single call, returning one result per snapshot
+   * in the same order. Falls back to one call per snapshot if the API predates the
+   * batch endpoint.
+   */
+  public List<SnapshotReportResult> reportBatch(Collection<SnapshotVersionEgg> snapshots) throws IOException {
+    // the API doesn't write snapshots that repeat the stored resolved version, so a
+    // batch is safe to send to two replicas
+    try (Response response = execute(postRequests(REPORT_BATCH_PATH, mapper.writeValueAsString(snapshots)), true)) {
+      if (response.code() == 404) {
+        return reportIndividually(snapshots);
+      } else if (response.code() != 200) {
+        throw new IOException("Unexpected response code from accelerator API: " + response.code());
+      }
+
+      List<SnapshotReportResult> results = mapper.readValue(response.body().byteStream(), REPORT_RESULTS);
+      if (results.size() != snapshots.size()) {
+        throw new IOException("Expected " + snapshots.size() + " results from accelerator API but got " + results.size());
+      }
+
+      return results;
+    }
+  }
+
+  private List<SnapshotReportResult> reportIndividually(Collection<SnapshotVersionEgg> snapshots) {
+    List<SnapshotReportResult> results = new ArrayList<>(snapshots.size());
+    for (SnapshotVersionEgg snapshot : snapshots) {
+      try {
+        results.add(SnapshotReportResult.success(report(snapshot)));
+      } catch (IOException e) {
+        results.add(SnapshotReportResult.failure(String.valueOf(e.getMessage())));
+      }
+    }
+
+    return results;
+  }
+
+  private RequestFactory postRequests(final String path, final String json) {
+    return new RequestFactory() {
+
+      @Override
+      public Request create(String baseUrl) {
+        return new Request.Builder()
+                .url(baseUrl + path)
+                .post(RequestBody.create(JSON, json))
+                .build();
+      }
+    };
+  }
+
+  private RequestFactory deltaRequests(final String path, final String accept, final int offset, final BloomFilter filter) {
+    return new RequestFactory() {
+
+      @Override
+      public Request create(String baseUrl) {
+        return deltaRequest(baseUrl + path, accept, offset, filter);
+      }
+    };
+  }
+
+  private RequestFactory rangeRequests(final int offset, final Integer until, final BloomFilter filter) {
+    return new RequestFactory() {
+
+      @Override
+      public Request create(String baseUrl) {
+        return rangeRequest(baseUrl, offset, until, filter);
+      }
+    };
+  }
+
+  private Request deltaRequest(String url, String accept, int offset, BloomFilter filter) {
+    Request.Builder request = new Request.Builder()
+            .url(url + "?offset=" + offset)
+            .header("Accept", accept);
+    if (filter != null) {
+      request.post(RequestBody.create(OCTET_STREAM, filter.toBytes()));
+    } else {
+      // the API tags deltas with the head id, so this gets a 304 when there's nothing
+      // new. Only GETs can get a 304, a filtered delta just comes back empty
+      request.header("If-None-Match", "W/\"" + offset + "\"");
+    }
+
+    return request.build();
+  }
+
+  /**
+   * Request for the ids after {@code offset} up to and including {@code until}, or the
+   * whole rest of the delta if {@code until} is null.
+   */
+  private Request rangeRequest(String baseUrl, int offset, Integer until, BloomFilter filter) {
+    Request.Builder request = new Request.Builder()
+            .url(baseUrl + DELTA_STREAM_PATH + "?offset=" + offset + (until == null ? "" : "&until=" + until))
+            .header("Accept", STREAM_ACCEPT);
+    if (filter != null) {
+      request.post(RequestBody.create(OCTET_STREAM, filter.toBytes()));
+    }
+
+    return request.build();
+  }
+
+  private PageReader openPage(int offset) throws IOException {
+    Response response = execute(deltaRequests(DELTA_PATH, PAGE_ACCEPT, offset, null), true);
+    try {
+      if (response.code() != 200 && response.code() != 304) {
+        throw new IOException("Unexpected response code from accelerator API: " + response.code());
+      }
+
+      return new PageReader(response, offset);
+    } catch (IOException | RuntimeException e) {
+      response.close();
+      throw e;
+    }
+  }
+
+  private List<DeltaSegment> getSegments(int offset) {
     Request request = new Request.Builder()
-            .url(deltaUrl + "?offset=" + offset)
+            .url(segmentsUrl + "/" + SegmentManifest.FILENAME)
             .build();
 
+    List<DeltaSegment> segments = new ArrayList<>();
     try (Response response = client.newCall(request).execute()) {
+      if (response.code() != 200) {
+        return segments;
+      }
+
+      for (DeltaSegment segment : mapper.readValue(response.body().byteStream(), SegmentManifest.class).getSegments()) {
+        if (segment.getEndOffset() > offset) {
+          segments.add(segment);
+        }
+      }
+    } catch (IOException e) {
+      // segments are only an optimization, the API has the same data
+      segments.clear();
+    }
+
+    return segments;
+  }
+
+  /**
+   * Reads one range of the delta into memory. APIs that predate ranges ignore
+   * {@code until}, so the response is cut off at the first id past it.
+   */
+  private List<SnapshotVersion> getRange(int offset, Integer until, BloomFilter filter) throws IOException {
+    Response response = execute(rangeRequests(offset, until, filter), true);
+    try {
       if (response.code() != 200) {
         throw new IOException("Unexpected response code from accelerator API: " + response.code());
       }
 
-      return mapper.readValue(response.body().byteStream(), Snapshots.class);
+      List<SnapshotVersion> snapshots = new ArrayList<>();
+      DeltaReader reader = new DeltaReader(response);
+      SnapshotVersion snapshot;
+      while ((snapshot = reader.next()) != null) {
+        if (until != null && snapshot.getId() > until) {
+          break;
+        }
+        snapshots.add(snapshot);
+      }
+
+      return snapshots;
+    } finally {
+      response.close();
+    }
+  }
+
+  /**
+   * The head id from the weak ETag the API puts on deltas, or -1 if there isn't one.
+   */
+  private static int parseHead(Response response) {
+    String etag = response.header("ETag");
+    if (etag == null) {
+      return -1;
+    }
+
+    if (etag.startsWith("W/")) {
+      etag = etag.substring(2);
+    }
+    etag = etag.replace("\"", "");
+
+    try {
+      return Integer.parseInt(etag);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Sends the request to the first available replica, moving on to the next one if it
+   * can't be reached or answers with a server error. With {@code hedge} set, a replica
+   * that takes longer than most recent calls did gets the request sent to the next
+   * replica as well and whichever answers first wins, so only hedge requests that are
+   * safe to send twice.
+   *
+   * If every replica answers with a server error the last of those responses is
+   * returned, so callers report it the same way they would for a single API.
+   */
+  private Response execute(RequestFactory requests, boolean hedge) throws IOException {
+    List<String> candidates = replicas.available();
+    if (candidates.size() == 1) {
+      return executeOn(candidates.get(0), requests);
+    }
+
+    BlockingQueue<Attempt> attempts = new LinkedBlockingQueue<>();
+    AtomicBoolean done = new AtomicBoolean(false);
+    List<Call> calls = new ArrayList<>();
+    Call winner = null;
+    Attempt serverError = null;
+    IOException failure = null;
+    int next = 0;
+    int inFlight = 0;
+    boolean hedged = !hedge;
+
+    try {
+      while (true) {
+        if (inFlight == 0) {
+          if (next == candidates.size()) {
+            if (serverError != null) {
+              winner = serverError.call;
+              Response response = serverError.response;
+              serverError = null;
+              return response;
+            }
+            throw failure;
+          }
+
+          calls.add(enqueue(candidates.get(next++), requests, attempts, done));
+          inFlight++;
+        }
+
+        Attempt attempt;
+        if (!hedged && next < candidates.size()) {
+          attempt = attempts.poll(replicas.hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+          if (attempt == null) {
+            hedged = true;
+            calls.add(enqueue(candidates.get(next++), requests, attempts, done));
+            inFlight++;
+            continue;
+          }
+        } else {
+          attempt = attempts.take();
+        }
+        inFlight--;
+
+        if (attempt.response != null && attempt.response.code() < 500) {
+          replicas.recordSuccess(attempt.baseUrl, attempt.latencyMillis);
+          winner = attempt.call;
+          return attempt.response;
+        }
+
+        replicas.recordFailure(attempt.baseUrl);
+        if (attempt.response != null) {
+          if (serverError != null) {
+            serverError.response.close();
+          }
+          serverError = attempt;
+        } else {
+          failure = attempt.failure;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted calling accelerator API", e);
+    } finally {
+      done.set(true);
+      for (Call call : calls) {
+        if (call != winner) {
+          call.cancel();
+        }
+      }
+      if (serverError != null) {
+        serverError.response.close();
+      }
+      drain(attempts);
+    }
+  }
+
+  private Response executeOn(String baseUrl, RequestFactory requests) throws IOException {
+    long start = System.currentTimeMillis();
+    Response response;
+    try {
+      response = client.newCall(requests.create(baseUrl)).execute();
+    } catch (IOException e) {
+      replicas.recordFailure(baseUrl);
+      throw e;
+    }
+
+    if (response.code() < 500) {
+      replicas.recordSuccess(baseUrl, System.currentTimeMillis() - start);
+    } else {
+      replicas.recordFailure(baseUrl);
+    }
+
+    return response;
+  }
+
+  private Call enqueue(final String baseUrl,
+                       RequestFactory requests,
+                       final BlockingQueue<Attempt> attempts,
+                       final AtomicBoolean done) {
+    final long start = System.currentTimeMillis();
+    Call call = client.newCall(requests.create(baseUrl));
+    call.enqueue(new Callback() {
+
+      @Override
+      public void onFailure(Call call, IOException e) {
+        attempts.add(new Attempt(baseUrl, call, null, e, 0));
+        if (done.get()) {
+          drain(attempts);
+        }
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        attempts.add(new Attempt(baseUrl, call, response, null, System.currentTimeMillis() - start));
+        // the caller already has its answer, nothing else is going to close this
+        if (done.get()) {
+          drain(attempts);
+        }
+      }
+    });
+
+    return call;
+  }
+
+  private static void drain(BlockingQueue<Attempt> attempts) {
+    Attempt attempt;
+    while ((attempt = attempts.poll()) != null) {
+      if (attempt.response != null) {
+        attempt.response.close();
+      }
+    }
+  }
+
+  private interface RequestFactory {
+    Request create(String baseUrl);
+  }
+
+  private static class Attempt {
+    private final String baseUrl;
+    private final Call call;
+    private final Response response;
+    private final IOException failure;
+    private final long latencyMillis;
+
+    public Attempt(String baseUrl, Call call, Response response, IOException failure, long latencyMillis) {
+      this.baseUrl = baseUrl;
+      this.call = call;
+      this.response = response;
+      this.failure = failure;
+      this.latencyMillis = latencyMillis;
     }
   }
 
+  private static boolean isBinary(Response response) {
+    MediaType contentType = response.body().contentType();
+    return contentType != null && SnapshotCodec.MEDIA_TYPE.equals(contentType.type() + "/" + contentType.subtype());
+  }
+
   private enum State {
     READY, NOT_READY, DONE, FAILED
   }
 
-  private class SnapshotIterator implements Iterator<SnapshotVersion> {
-    private final int initialOffset;
-    private State state;
-    private SnapshotVersion next;
-    private Snapshots snapshots;
-    private Iterator<SnapshotVersion> iterator;
+  private abstract static class AbstractSnapshotIterator implements DeltaIterator {
+    private State state = State.NOT_READY;
+    private SnapshotVersion next = null;
+    private volatile boolean closed = false;
 
-    public SnapshotIterator(int initialOffset) {
-      this.initialOffset = initialOffset;
-      this.state = State.NOT_READY;
-      this.next = null;
-      this.snapshots = null;
-      this.iterator = null;
+    protected abstract SnapshotVersion computeNext();
+
+    /**
+     * Closes whatever the iterator has open. Called from {@link #close()}, which can
+     * be on a different thread than the one iterating.
+     */
+    protected abstract void release();
+
+    protected final SnapshotVersion endOfData() {
+      state = State.DONE;
+      return null;
     }
 
     @Override
@@ -146,37 +629,573 @@ public class AcceleratorClient {
       throw new UnsupportedOperationException("remove");
     }
 
+    @Override
+    public void close() {
+      closed = true;
+      release();
+    }
+
     private boolean tryToComputeNext() {
+      if (closed) {
+        state = State.DONE;
+        return false;
+      }
+
       state = State.FAILED; // temporary pessimism
       next = computeNext();
-      if (state != State.DONE) {
+      if (closed) {
+        // closed while computing, release anything opened since
+        release();
+        next = null;
+        state = State.DONE;
+        return false;
+      } else if (state != State.DONE) {
         state = State.READY;
         return true;
       }
       return false;
     }
+  }
 
-    private SnapshotVersion computeNext() {
+  /**
+   * Reads the delta a page at a time, one snapshot at a time as each page is decoded.
+   * Once a page says where the next one starts, the next page is opened in the
+   * background while the current one is being consumed.
+   */
+  private class SnapshotIterator extends AbstractSnapshotIterator {
+    private final int initialOffset;
+    private volatile PageReader page;
+    private volatile Future<PageReader> nextPage;
+
+    public SnapshotIterator(int initialOffset) {
+      this.initialOffset = initialOffset;
+      this.page = null;
+      this.nextPage = null;
+    }
+
+    @Override
+    protected SnapshotVersion computeNext() {
       try {
-        if (snapshots == null) {
-          snapshots = getSinglePage(initialOffset);
-          iterator = snapshots.getVersions().iterator();
+        if (page == null) {
+          setPage(openPage(initialOffset));
         }
 
-        while (!iterator.hasNext()) {
-          if (snapshots.hasMore()) {
-            snapshots = getSinglePage(snapshots.getNextOffset());
-            iterator = snapshots.getVersions().iterator();
+        SnapshotVersion snapshot;
+        while ((snapshot = page.next()) == null) {
+          page.close();
+          if (!page.hasMore()) {
+            return endOfData();
+          }
+
+          setPage(nextPage == null ? openPage(page.getNextOffset()) : await(nextPage));
+        }
+
+        return snapshot;
+      } catch (IOException e) {
+        release();
+        throw new RuntimeException(e);
+      }
+    }
+
+    private void setPage(PageReader reader) {
+      page = reader;
+      nextPage = null;
+
+      if (reader.isTrailerKnown() && reader.hasMore()) {
+        final int nextOffset = reader.getNextOffset();
+        nextPage = executor.submit(new Callable<PageReader>() {
+
+          @Override
+          public PageReader call() throws IOException {
+            return openPage(nextOffset);
+          }
+        });
+      }
+    }
+
+    @Override
+    protected void release() {
+      PageReader current = page;
+      if (current != null) {
+        current.close();
+      }
+
+      Future<PageReader> pending = nextPage;
+      nextPage = null;
+      if (pending != null && !pending.cancel(true) && !pending.isCancelled()) {
+        try {
+          await(pending).close();
+        } catch (IOException ignored) {}
+      }
+    }
+  }
+
+  /**
+   * Decodes a page of the delta one snapshot at a time, so only the current snapshot
+   * is held in memory rather than the whole page. The API writes {@code hasMore} and
+   * {@code nextOffset} ahead of the versions in both encodings, so they're known as
+   * soon as the page is opened; for APIs that write them after the versions, they're
+   * known once the last snapshot has been read.
+   */
+  private class PageReader {
+    private final Response response;
+    private final SnapshotCodec.Decoder decoder;
+    private final JsonParser parser;
+    private boolean inVersions;
+    private boolean finished;
+    private Boolean hasMore;
+    private Integer nextOffset;
+
+    public PageReader(Response response, int offset) throws IOException {
+      this.response = response;
+      this.inVersions = false;
+      this.finished = false;
+      this.hasMore = null;
+      this.nextOffset = null;
+
+      if (response.code() == 304) {
+        // not modified since the offset
+        this.decoder = null;
+        this.parser = null;
+        this.hasMore = false;
+        this.nextOffset = offset;
+        this.finished = true;
+      } else if (isBinary(response)) {
+        this.decoder = SnapshotCodec.newDecoder(response.body().byteStream());
+        this.parser = null;
+        if (decoder.isPageKnown()) {
+          this.hasMore = decoder.hasMore();
+          this.nextOffset = decoder.getNextOffset();
+        }
+      } else {
+        this.decoder = null;
+        this.parser = mapper.getFactory().createParser(response.body().byteStream());
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IOException("Expected a page of snapshots from accelerator API");
+        }
+        readFields();
+      }
+    }
+
+    /**
+     * Returns the next snapshot, or null once the whole page has been read.
+     */
+    public SnapshotVersion next() throws IOException {
+      if (finished) {
+        return null;
+      }
+
+      if (decoder != null) {
+        SnapshotVersion snapshot = decoder.next();
+        if (snapshot == null) {
+          hasMore = decoder.hasMore();
+          nextOffset = decoder.getNextOffset();
+          finished = true;
+        }
+        return snapshot;
+      }
+
+      while (inVersions) {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_OBJECT) {
+          return mapper.readValue(parser, SnapshotVersion.class);
+        } else if (token == JsonToken.END_ARRAY) {
+          inVersions = false;
+          readFields();
+        } else if (token == null) {
+          throw new IOException("Page from accelerator API ended part way through");
+        } else {
+          parser.skipChildren();
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Whether {@link #hasMore()} and {@link #getNextOffset()} can be called before the
+     * page has been read.
+     */
+    public boolean isTrailerKnown() {
+      return hasMore != null && nextOffset != null;
+    }
+
+    public boolean hasMore() {
+      checkTrailer();
+      return hasMore;
+    }
+
+    public int getNextOffset() {
+      checkTrailer();
+      return nextOffset;
+    }
+
+    public void close() {
+      if (parser != null) {
+        try {
+          parser.close();
+        } catch (IOException ignored) {}
+      }
+      response.close();
+    }
+
+    /**
+     * Reads fields of the page object until the versions start or the object ends.
+     */
+    private void readFields() throws IOException {
+      JsonToken token;
+      while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        token = parser.nextToken();
+        if ("versions".equals(field) && token == JsonToken.START_ARRAY) {
+          inVersions = true;
+          return;
+        } else if ("hasMore".equals(field)) {
+          hasMore = parser.getValueAsBoolean();
+        } else if ("nextOffset".equals(field)) {
+          nextOffset = parser.getValueAsInt();
+        } else {
+          parser.skipChildren();
+        }
+      }
+
+      if (token != JsonToken.END_OBJECT) {
+        throw new IOException("Page from accelerator API ended part way through");
+      }
+
+      // same defaults as binding the page would have given missing fields
+      if (hasMore == null) {
+        hasMore = false;
+      }
+      if (nextOffset == null) {
+        nextOffset = 0;
+      }
+      finished = true;
+    }
+
+    private void checkTrailer() {
+      if (!isTrailerKnown()) {
+        throw new IllegalStateException("Page hasn't been read far enough yet");
+      }
+    }
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted reading delta from accelerator API", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Decodes a delta stream response in whichever encoding the API picked, one record at
+   * a time.
+   */
+  private class DeltaReader {
+    private final BufferedSource source;
+    private final SnapshotCodec.Decoder decoder;
+
+    public DeltaReader(Response response) throws IOException {
+      this.source = response.body().source();
+      this.decoder = isBinary(response) ? SnapshotCodec.newDecoder(source.inputStream()) : null;
+    }
+
+    /**
+     * Returns the next snapshot, or null once the trailer has been read.
+     */
+    public SnapshotVersion next() throws IOException {
+      if (decoder != null) {
+        return decoder.next();
+      }
+
+      String line;
+      while ((line = source.readUtf8Line()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+
+        JsonNode node = mapper.readTree(line);
+        if (node.has("nextOffset")) {
+          // trailer record, everything before it was delivered
+          return null;
+        }
+
+        return mapper.treeToValue(node, SnapshotVersion.class);
+      }
+
+      throw new IOException("Delta stream from accelerator API ended without a trailer");
+    }
+  }
+
+  /**
+   * Reads the whole delta from a single streaming request, one record at a time. Falls
+   * back to paging if the API predates the streaming endpoint.
+   *
+   * If the head id on the response shows the delta is large, the first response is
+   * only read up to the end of the first range of ids, and the ranges after it are
+   * fetched in parallel a few at a time. Ranges are still returned in id order.
+   */
+  private class StreamingSnapshotIterator extends AbstractSnapshotIterator {
+    private final int initialOffset;
+    private BloomFilter filter;
+    private volatile Response response;
+    private DeltaReader reader;
+    private int readerUntil;
+    private volatile SnapshotIterator fallback;
+    private int head;
+    private int nextRangeOffset;
+    private volatile Deque<Future<List<SnapshotVersion>>> ranges;
+    private Iterator<SnapshotVersion> range;
+
+    public StreamingSnapshotIterator(int initialOffset, BloomFilter filter) {
+      this.initialOffset = initialOffset;
+      this.filter = filter;
+      this.response = null;
+      this.reader = null;
+      this.readerUntil = Integer.MAX_VALUE;
+      this.fallback = null;
+      this.head = -1;
+      this.nextRangeOffset = -1;
+      this.ranges = null;
+      this.range = null;
+    }
+
+    @Override
+    protected SnapshotVersion computeNext() {
+      if (fallback != null) {
+        return fallback.hasNext() ? fallback.next() : endOfData();
+      }
+
+      try {
+        if (response == null && reader == null && ranges == null) {
+          if (!open()) {
+            fallback = new SnapshotIterator(initialOffset);
+            return computeNext();
+          } else if (reader == null) {
+            // not modified since the offset
+            return endOfData();
+          }
+        }
+
+        if (reader != null) {
+          SnapshotVersion snapshot = reader.next();
+          if (snapshot != null && snapshot.getId() <= readerUntil) {
+            return snapshot;
+          }
+
+          closeResponse();
+          if (ranges == null) {
+            return endOfData();
+          }
+        }
+
+        while (range == null || !range.hasNext()) {
+          if (ranges.isEmpty()) {
+            return endOfData();
+          }
+
+          range = await(ranges.removeFirst()).iterator();
+          submitRange();
+        }
+
+        return range.next();
+      } catch (IOException e) {
+        release();
+        throw new RuntimeException(e);
+      }
+    }
+
+    private boolean open() throws IOException {
+      response = execute(deltaRequests(DELTA_STREAM_PATH, STREAM_ACCEPT, initialOffset, filter), true);
+      if (filter != null && (response.code() == 405 || response.code() == 415)) {
+        // API predates filtered deltas
+        closeResponse();
+        filter = null;
+        response = execute(deltaRequests(DELTA_STREAM_PATH, STREAM_ACCEPT, initialOffset, null), true);
+      }
+
+      if (response.code() == 404) {
+        closeResponse();
+        return false;
+      } else if (response.code() == 304) {
+        closeResponse();
+        return true;
+      } else if (response.code() != 200) {
+        int code = response.code();
+        closeResponse();
+        throw new IOException("Unexpected response code from accelerator API: " + code);
+      }
+
+      reader = new DeltaReader(response);
+
+      head = parseHead(response);
+      if (head - initialOffset > 2L * rangeSize) {
+        readerUntil = initialOffset + rangeSize;
+        nextRangeOffset = readerUntil;
+        ranges = new ConcurrentLinkedDeque<>();
+        for (int i = 0; i < parallelRanges; i++) {
+          submitRange();
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Starts fetching the next range, the last one being everything after the head
+     * seen when the delta was opened.
+     */
+    private void submitRange() {
+      if (nextRangeOffset < 0) {
+        return;
+      }
+
+      final int offset = nextRangeOffset;
+      final Integer until;
+      if ((long) offset + rangeSize >= head) {
+        until = null;
+        nextRangeOffset = -1;
+      } else {
+        until = offset + rangeSize;
+        nextRangeOffset = until;
+      }
+
+      final BloomFilter rangeFilter = filter;
+      ranges.addLast(executor.submit(new Callable<List<SnapshotVersion>>() {
+
+        @Override
+        public List<SnapshotVersion> call() throws IOException {
+          return getRange(offset, until, rangeFilter);
+        }
+      }));
+    }
+
+    private void cancelRanges() {
+      if (ranges != null) {
+        for (Future<List<SnapshotVersion>> pending : ranges) {
+          pending.cancel(true);
+        }
+        ranges.clear();
+      }
+    }
+
+    @Override
+    protected void release() {
+      closeResponse();
+      cancelRanges();
+      if (fallback != null) {
+        fallback.close();
+      }
+    }
+
+    private void closeResponse() {
+      reader = null;
+      Response current = response;
+      response = null;
+      if (current != null) {
+        current.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the segments that end after the offset, skipping snapshots at or before it,
+   * then continues with the live delta from the end of the last segment.
+   */
+  private class SegmentSnapshotIterator extends AbstractSnapshotIterator {
+    private final int initialOffset;
+    private final BloomFilter filter;
+    private Iterator<DeltaSegment> segments;
+    private DeltaSegment segment;
+    private volatile Response response;
+    private SnapshotCodec.Decoder decoder;
+    private int offset;
+    private volatile DeltaIterator live;
+
+    public SegmentSnapshotIterator(int initialOffset, BloomFilter filter) {
+      this.initialOffset = initialOffset;
+      this.filter = filter;
+      this.segments = null;
+      this.segment = null;
+      this.response = null;
+      this.decoder = null;
+      this.offset = initialOffset;
+      this.live = null;
+    }
+
+    @Override
+    protected SnapshotVersion computeNext() {
+      try {
+        if (segments == null) {
+          segments = getSegments(initialOffset).iterator();
+        }
+
+        while (live == null) {
+          if (decoder == null) {
+            if (segments.hasNext()) {
+              open(segments.next());
+            } else {
+              live = getDelta(offset, filter);
+            }
           } else {
-            state = State.DONE;
-            return null;
+            SnapshotVersion snapshot = decoder.next();
+            if (snapshot == null) {
+              offset = Math.max(offset, segment.getEndOffset());
+              closeSegment();
+            } else if (snapshot.getId() > initialOffset && (filter == null || filter.mightContain(snapshot))) {
+              return snapshot;
+            }
           }
         }
 
-        return iterator.next();
+        return live.hasNext() ? live.next() : endOfData();
       } catch (IOException e) {
+        release();
         throw new RuntimeException(e);
       }
     }
+
+    private void open(DeltaSegment segment) throws IOException {
+      Request request = new Request.Builder()
+              .url(segmentsUrl + "/" + segment.getFile())
+              // segments are already gzipped, keep OkHttp from negotiating another layer
+              .header("Accept-Encoding", "identity")
+              .build();
+
+      response = client.newCall(request).execute();
+      if (response.code() != 200) {
+        int code = response.code();
+        closeSegment();
+        throw new IOException("Unexpected response code fetching delta segment " + segment.getFile() + ": " + code);
+      }
+
+      this.segment = segment;
+      this.decoder = SnapshotCodec.newDecoder(new GZIPInputStream(response.body().byteStream()));
+    }
+
+    @Override
+    protected void release() {
+      closeSegment();
+      if (live != null) {
+        live.close();
+      }
+    }
+
+    private void closeSegment() {
+      decoder = null;
+      segment = null;
+      Response current = response;
+      response = null;
+      if (current != null) {
+        current.close();
+      }
+    }
   }
 }
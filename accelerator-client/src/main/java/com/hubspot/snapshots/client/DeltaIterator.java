@@ -0,0 +1,17 @@
+package com.hubspot.snapshots.client;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+/**
+ * Reads a delta one snapshot at a time. Closing it before it's exhausted releases the
+ * connections and background fetches it has open, after which {@link #hasNext()}
+ * returns false.
+ */
+public interface DeltaIterator extends Iterator<SnapshotVersion>, Closeable {
+
+  @Override
+  void close();
+}
@@ -0,0 +1,134 @@
+package com.hubspot.snapshots.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The base urls of the API replicas a client can use, in order of preference. Tracks
+ * replicas that recently failed so they can be skipped for a while, and the latency
+ * of recent calls so the client knows when a replica is slow enough to be worth
+ * hedging against.
+ *
+ * Clients using the same list of replicas share a replica set, so what one client
+ * learned is still known to the next, like the extension's client for the next build
+ * in the same process.
+ */
+class ReplicaSet {
+  private static final ConcurrentMap<List<String>, ReplicaSet> SHARED = new ConcurrentHashMap<>();
+
+  private static final long COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final int LATENCY_SAMPLES = 100;
+  private static final int MIN_LATENCY_SAMPLES = 10;
+  private static final double HEDGE_PERCENTILE = 0.95;
+  private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+  private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+
+  private final List<String> baseUrls;
+  private final AtomicLongArray cooldownUntil;
+  private final long[] latencies;
+  private int latencyCount;
+
+  private ReplicaSet(List<String> baseUrls) {
+    this.baseUrls = Collections.unmodifiableList(baseUrls);
+    this.cooldownUntil = new AtomicLongArray(baseUrls.size());
+    this.latencies = new long[LATENCY_SAMPLES];
+    this.latencyCount = 0;
+  }
+
+  /**
+   * Returns the replica set for a comma-separated list of base urls, the first of
+   * which is the primary.
+   */
+  static ReplicaSet forBaseUrls(String baseUrls) {
+    List<String> parsed = parse(baseUrls);
+    ReplicaSet replicas = SHARED.get(parsed);
+    if (replicas == null) {
+      ReplicaSet created = new ReplicaSet(parsed);
+      replicas = SHARED.putIfAbsent(parsed, created);
+      if (replicas == null) {
+        replicas = created;
+      }
+    }
+
+    return replicas;
+  }
+
+  /**
+   * Parses a comma-separated list of base urls, keeping their order.
+   */
+  static List<String> parse(String baseUrls) {
+    List<String> parsed = new ArrayList<>();
+    for (String baseUrl : baseUrls.split(",")) {
+      if (!baseUrl.trim().isEmpty()) {
+        parsed.add(baseUrl.trim());
+      }
+    }
+
+    if (parsed.isEmpty()) {
+      throw new IllegalArgumentException("No accelerator base urls in " + baseUrls);
+    }
+
+    return parsed;
+  }
+
+  /**
+   * Replicas to try in order, leaving out those that failed recently unless all of
+   * them did.
+   */
+  List<String> available() {
+    long now = System.currentTimeMillis();
+
+    List<String> available = new ArrayList<>(baseUrls.size());
+    for (int i = 0; i < baseUrls.size(); i++) {
+      if (cooldownUntil.get(i) <= now) {
+        available.add(baseUrls.get(i));
+      }
+    }
+
+    return available.isEmpty() ? baseUrls : available;
+  }
+
+  void recordSuccess(String baseUrl, long latencyMillis) {
+    int index = baseUrls.indexOf(baseUrl);
+    if (index >= 0) {
+      cooldownUntil.set(index, 0);
+    }
+
+    synchronized (latencies) {
+      latencies[latencyCount % LATENCY_SAMPLES] = latencyMillis;
+      latencyCount++;
+    }
+  }
+
+  void recordFailure(String baseUrl) {
+    int index = baseUrls.indexOf(baseUrl);
+    if (index >= 0) {
+      cooldownUntil.set(index, System.currentTimeMillis() + COOLDOWN_MILLIS);
+    }
+  }
+
+  /**
+   * How long to wait for a replica before also asking another one, based on the
+   * latency of recent calls.
+   */
+  long hedgeDelayMillis() {
+    long[] samples;
+    synchronized (latencies) {
+      if (latencyCount < MIN_LATENCY_SAMPLES) {
+        return DEFAULT_HEDGE_DELAY_MILLIS;
+      }
+
+      samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+    }
+
+    Arrays.sort(samples);
+    int index = (int) Math.ceil(HEDGE_PERCENTILE * samples.length) - 1;
+    return Math.max(samples[Math.max(index, 0)], MIN_HEDGE_DELAY_MILLIS);
+  }
+}
@@ -0,0 +1,130 @@
+package com.hubspot.snapshots.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact set of snapshot coordinates that a client sends with its delta request so
+ * that the API can leave out snapshots the client doesn't have. False positives only
+ * cost bandwidth, there are no false negatives.
+ */
+public class BloomFilter {
+  private static final byte FORMAT_VERSION = 1;
+  private static final int MAX_HASH_FUNCTIONS = 16;
+  private static final int MAX_WORDS = 1 << 21; // 16MB
+
+  private final long[] words;
+  private final int numHashFunctions;
+
+  private BloomFilter(long[] words, int numHashFunctions) {
+    this.words = words;
+    this.numHashFunctions = numHashFunctions;
+  }
+
+  public static BloomFilter create(int expectedInsertions, double falsePositiveProbability) {
+    int n = Math.max(1, expectedInsertions);
+    long numBits = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+    int numWords = (int) Math.max(1, Math.min(MAX_WORDS, (numBits + 63) / 64));
+    int numHashFunctions = (int) Math.round((double) numWords * 64 / n * Math.log(2));
+
+    return new BloomFilter(new long[numWords], Math.max(1, Math.min(MAX_HASH_FUNCTIONS, numHashFunctions)));
+  }
+
+  public static String coordinates(String groupId, String artifactId, String baseVersion) {
+    return groupId + ':' + artifactId + ':' + baseVersion;
+  }
+
+  public void put(String coordinates) {
+    long hash = hash(coordinates);
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    long numBits = (long) words.length * 64;
+
+    for (int i = 1; i <= numHashFunctions; i++) {
+      long bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % numBits;
+      words[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  public boolean mightContain(String coordinates) {
+    long hash = hash(coordinates);
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    long numBits = (long) words.length * 64;
+
+    for (int i = 1; i <= numHashFunctions; i++) {
+      long bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % numBits;
+      if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  public boolean mightContain(SnapshotVersionCore snapshot) {
+    return mightContain(coordinates(snapshot.getGroupId(), snapshot.getArtifactId(), snapshot.getBaseVersion()));
+  }
+
+  public byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(6 + words.length * 8);
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      output.writeByte(FORMAT_VERSION);
+      output.writeByte(numHashFunctions);
+      output.writeInt(words.length);
+      for (long word : words) {
+        output.writeLong(word);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  public static BloomFilter fromBytes(byte[] bytes) {
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      byte version = input.readByte();
+      if (version != FORMAT_VERSION) {
+        throw new IllegalArgumentException("Unsupported bloom filter version " + version);
+      }
+
+      int numHashFunctions = input.readByte();
+      int numWords = input.readInt();
+      if (numHashFunctions < 1 || numHashFunctions > MAX_HASH_FUNCTIONS || numWords < 1 || numWords > MAX_WORDS) {
+        throw new IllegalArgumentException("Invalid bloom filter with " + numWords + " words and " + numHashFunctions + " hash functions");
+      } else if (bytes.length != 6 + numWords * 8) {
+        throw new IllegalArgumentException("Expected " + (6 + numWords * 8) + " bytes of bloom filter but got " + bytes.length);
+      }
+
+      long[] words = new long[numWords];
+      for (int i = 0; i < numWords; i++) {
+        words[i] = input.readLong();
+      }
+
+      return new BloomFilter(words, numHashFunctions);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid bloom filter", e);
+    }
+  }
+
+  // 64-bit FNV-1a followed by the murmur3 finalizer so both halves are well mixed
+  private static long hash(String coordinates) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : coordinates.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb93fe53ba1f5L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,36 @@
+package com.hubspot.snapshots.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * An immutable, gzipped {@link SnapshotCodec} file holding the snapshots with ids
+ * after {@code startOffset} up to and including {@code endOffset}, as they were when
+ * the segment was written.
+ */
+public class DeltaSegment {
+  private final String file;
+  private final int startOffset;
+  private final int endOffset;
+
+  @JsonCreator
+  public DeltaSegment(@JsonProperty("file") String file,
+                      @JsonProperty("startOffset") int startOffset,
+                      @JsonProperty("endOffset") int endOffset) {
+    this.file = file;
+    this.startOffset = startOffset;
+    this.endOffset = endOffset;
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  public int getStartOffset() {
+    return startOffset;
+  }
+
+  public int getEndOffset() {
+    return endOffset;
+  }
+}
@@ -0,0 +1,32 @@
+package com.hubspot.snapshots.core;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Head pointer for an exported delta log. The segments are contiguous and in id
+ * order, and {@code nextOffset} is the offset to continue from with the live API.
+ */
+public class SegmentManifest {
+  public static final String FILENAME = "head.json";
+
+  private final List<DeltaSegment> segments;
+  private final int nextOffset;
+
+  @JsonCreator
+  public SegmentManifest(@JsonProperty("segments") List<DeltaSegment> segments,
+                         @JsonProperty("nextOffset") int nextOffset) {
+    this.segments = segments;
+    this.nextOffset = nextOffset;
+  }
+
+  public List<DeltaSegment> getSegments() {
+    return segments;
+  }
+
+  public int getNextOffset() {
+    return nextOffset;
+  }
+}
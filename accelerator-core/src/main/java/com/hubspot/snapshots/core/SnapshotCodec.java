@@ -0,0 +1,382 @@
+package com.hubspot.snapshots.core;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Compact binary alternative to the JSON representation of {@link Snapshots}. A
+ * response is a header followed by any number of row records and a single trailer
+ * record, so the same encoding works for a page and for a stream of the whole delta.
+ * A page also has {@code hasMore} and {@code nextOffset} in its header, so a reader
+ * knows where the next page starts before reading the rows. Version 1 of the format
+ * only had them in the trailer, and can still be read.
+ *
+ * Ids are written as zigzag varint deltas from the previous row, groupIds are written
+ * once per response and referenced by index after that, and resolved versions of the
+ * usual {@code <version>-<yyyyMMdd.HHmmss>-<build>} form are written as a timestamp
+ * and build number instead of a string.
+ */
+public final class SnapshotCodec {
+  public static final String MEDIA_TYPE = "application/vnd.hubspot.snapshots";
+
+  private static final int MAGIC = 'S';
+  private static final int FORMAT_VERSION = 2;
+  private static final int OLDEST_FORMAT_VERSION = 1;
+
+  private static final int PAGE_UNKNOWN = 0;
+  private static final int PAGE_KNOWN = 1;
+
+  private static final int ROW = 1;
+  private static final int TRAILER = 2;
+
+  private static final int RESOLVED_RAW = 0;
+  private static final int RESOLVED_TIMESTAMPED = 1;
+
+  // coordinates are short, a longer string means the input is corrupt and shouldn't
+  // be allowed to make the reader allocate a huge buffer
+  private static final int MAX_STRING_LENGTH = 64 * 1024;
+
+  private static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
+  private static final String TIMESTAMP_PATTERN = "yyyyMMdd.HHmmss";
+
+  private SnapshotCodec() {
+    throw new AssertionError();
+  }
+
+  public static Encoder newEncoder(OutputStream output) throws IOException {
+    return new Encoder(output, null, 0);
+  }
+
+  /**
+   * Same as {@link #newEncoder(OutputStream)}, also writing {@code hasMore} and
+   * {@code nextOffset} in the header. The trailer has to repeat them.
+   */
+  public static Encoder newPageEncoder(OutputStream output, boolean hasMore, int nextOffset) throws IOException {
+    return new Encoder(output, hasMore, nextOffset);
+  }
+
+  public static Decoder newDecoder(InputStream input) throws IOException {
+    return new Decoder(input);
+  }
+
+  public static void writeSnapshots(Snapshots snapshots, OutputStream output) throws IOException {
+    Encoder encoder = newPageEncoder(output, snapshots.hasMore(), snapshots.getNextOffset());
+    for (SnapshotVersion snapshot : snapshots.getVersions()) {
+      encoder.write(snapshot);
+    }
+
+    encoder.writeTrailer(snapshots.hasMore(), snapshots.getNextOffset());
+  }
+
+  public static Snapshots readSnapshots(InputStream input) throws IOException {
+    Decoder decoder = newDecoder(input);
+
+    List<SnapshotVersion> versions = new ArrayList<>();
+    SnapshotVersion snapshot;
+    while ((snapshot = decoder.next()) != null) {
+      versions.add(snapshot);
+    }
+
+    return new Snapshots(versions, decoder.hasMore(), decoder.getNextOffset());
+  }
+
+  public static class Encoder implements Flushable {
+    private final OutputStream output;
+    private final Map<String, Integer> groupIds;
+    private final SimpleDateFormat timestampFormat;
+    private int previousId;
+    private boolean finished;
+
+    private Encoder(OutputStream output, Boolean hasMore, int nextOffset) throws IOException {
+      this.output = new BufferedOutputStream(output);
+      this.groupIds = new HashMap<>();
+      this.timestampFormat = timestampFormat();
+      this.previousId = 0;
+      this.finished = false;
+
+      this.output.write(MAGIC);
+      this.output.write(FORMAT_VERSION);
+      if (hasMore == null) {
+        this.output.write(PAGE_UNKNOWN);
+      } else {
+        this.output.write(PAGE_KNOWN);
+        this.output.write(hasMore ? 1 : 0);
+        writeVarLong(zigzag(nextOffset));
+      }
+    }
+
+    public void write(SnapshotVersion snapshot) throws IOException {
+      if (finished) {
+        throw new IllegalStateException("Trailer has already been written");
+      }
+
+      output.write(ROW);
+      writeVarLong(zigzag((long) snapshot.getId() - previousId));
+      previousId = snapshot.getId();
+
+      Integer groupIndex = groupIds.get(snapshot.getGroupId());
+      if (groupIndex == null) {
+        writeVarLong(groupIds.size());
+        writeString(snapshot.getGroupId());
+        groupIds.put(snapshot.getGroupId(), groupIds.size());
+      } else {
+        writeVarLong(groupIndex);
+      }
+
+      writeString(snapshot.getArtifactId());
+      writeString(snapshot.getBaseVersion());
+      writeResolvedVersion(snapshot.getBaseVersion(), snapshot.getResolvedVersion());
+    }
+
+    public void writeTrailer(boolean hasMore, int nextOffset) throws IOException {
+      if (finished) {
+        throw new IllegalStateException("Trailer has already been written");
+      }
+
+      output.write(TRAILER);
+      output.write(hasMore ? 1 : 0);
+      writeVarLong(zigzag(nextOffset));
+      output.flush();
+      finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      output.flush();
+    }
+
+    private void writeResolvedVersion(String baseVersion, String resolvedVersion) throws IOException {
+      String prefix = versionPrefix(baseVersion);
+      if (resolvedVersion.startsWith(prefix)) {
+        String rest = resolvedVersion.substring(prefix.length());
+        int separator = TIMESTAMP_PATTERN.length();
+        if (rest.length() > separator + 1 && rest.charAt(separator) == '-') {
+          try {
+            Date timestamp = timestampFormat.parse(rest.substring(0, separator));
+            int build = Integer.parseInt(rest.substring(separator + 1));
+            // only take the compact form if it decodes back to the same string
+            if (build >= 0 && resolvedVersion.equals(prefix + timestampFormat.format(timestamp) + '-' + build)) {
+              output.write(RESOLVED_TIMESTAMPED);
+              writeVarLong(zigzag(timestamp.getTime() / 1000));
+              writeVarLong(build);
+              return;
+            }
+          } catch (ParseException | NumberFormatException ignored) {}
+        }
+      }
+
+      output.write(RESOLVED_RAW);
+      writeString(resolvedVersion);
+    }
+
+    private void writeString(String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > MAX_STRING_LENGTH) {
+        throw new IOException("String length " + bytes.length + " is too large");
+      }
+
+      writeVarLong(bytes.length);
+      output.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        output.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      output.write((int) value);
+    }
+  }
+
+  public static class Decoder {
+    private final InputStream input;
+    private final List<String> groupIds;
+    private final SimpleDateFormat timestampFormat;
+    private int previousId;
+    private boolean finished;
+    private boolean pageKnown;
+    private boolean hasMore;
+    private int nextOffset;
+
+    private Decoder(InputStream input) throws IOException {
+      this.input = input;
+      this.groupIds = new ArrayList<>();
+      this.timestampFormat = timestampFormat();
+      this.previousId = 0;
+      this.finished = false;
+      this.pageKnown = false;
+
+      int magic = readByte();
+      int formatVersion = readByte();
+      if (magic != MAGIC || formatVersion < OLDEST_FORMAT_VERSION || formatVersion > FORMAT_VERSION) {
+        throw new IOException("Unsupported snapshot encoding " + magic + "/" + formatVersion);
+      }
+
+      if (formatVersion > 1) {
+        int page = readByte();
+        if (page == PAGE_KNOWN) {
+          hasMore = readByte() != 0;
+          nextOffset = (int) unzigzag(readVarLong());
+          pageKnown = true;
+        } else if (page != PAGE_UNKNOWN) {
+          throw new IOException("Unexpected page header " + page);
+        }
+      }
+    }
+
+    /**
+     * Returns the next snapshot, or null once the trailer has been read. Throws
+     * {@link EOFException} if the input ends before the trailer.
+     */
+    public SnapshotVersion next() throws IOException {
+      if (finished) {
+        return null;
+      }
+
+      int tag = readByte();
+      if (tag == TRAILER) {
+        hasMore = readByte() != 0;
+        nextOffset = (int) unzigzag(readVarLong());
+        finished = true;
+        pageKnown = true;
+        return null;
+      } else if (tag != ROW) {
+        throw new IOException("Unexpected record tag " + tag);
+      }
+
+      int id = (int) (previousId + unzigzag(readVarLong()));
+      previousId = id;
+
+      long groupIndex = readVarLong();
+      String groupId;
+      if (groupIndex == groupIds.size()) {
+        groupId = readString();
+        groupIds.add(groupId);
+      } else if (groupIndex < groupIds.size()) {
+        groupId = groupIds.get((int) groupIndex);
+      } else {
+        throw new IOException("Unknown groupId index " + groupIndex);
+      }
+
+      String artifactId = readString();
+      String baseVersion = readString();
+      String resolvedVersion = readResolvedVersion(baseVersion);
+
+      return new SnapshotVersion(id, groupId, artifactId, baseVersion, resolvedVersion);
+    }
+
+    /**
+     * Whether {@link #hasMore()} and {@link #getNextOffset()} can be called, either
+     * because the header had them or because the trailer has been read.
+     */
+    public boolean isPageKnown() {
+      return pageKnown;
+    }
+
+    public boolean hasMore() {
+      checkPageKnown();
+      return hasMore;
+    }
+
+    public int getNextOffset() {
+      checkPageKnown();
+      return nextOffset;
+    }
+
+    private void checkPageKnown() {
+      if (!pageKnown) {
+        throw new IllegalStateException("Trailer hasn't been read yet");
+      }
+    }
+
+    private String readResolvedVersion(String baseVersion) throws IOException {
+      int kind = readByte();
+      if (kind == RESOLVED_RAW) {
+        return readString();
+      } else if (kind == RESOLVED_TIMESTAMPED) {
+        Date timestamp = new Date(unzigzag(readVarLong()) * 1000);
+        long build = readVarLong();
+        return versionPrefix(baseVersion) + timestampFormat.format(timestamp) + '-' + build;
+      } else {
+        throw new IOException("Unexpected resolved version kind " + kind);
+      }
+    }
+
+    private String readString() throws IOException {
+      long length = readVarLong();
+      if (length > MAX_STRING_LENGTH) {
+        throw new IOException("String length " + length + " is too large");
+      }
+
+      byte[] bytes = new byte[(int) length];
+      int read = 0;
+      while (read < bytes.length) {
+        int count = input.read(bytes, read, bytes.length - read);
+        if (count < 0) {
+          throw new EOFException();
+        }
+        read += count;
+      }
+
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+
+      throw new IOException("Malformed varint");
+    }
+
+    private int readByte() throws IOException {
+      int b = input.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+
+      return b;
+    }
+  }
+
+  private static String versionPrefix(String baseVersion) {
+    if (baseVersion.endsWith(SNAPSHOT_SUFFIX)) {
+      baseVersion = baseVersion.substring(0, baseVersion.length() - SNAPSHOT_SUFFIX.length());
+    }
+
+    return baseVersion + '-';
+  }
+
+  private static SimpleDateFormat timestampFormat() {
+    SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_PATTERN);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    format.setLenient(false);
+    return format;
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
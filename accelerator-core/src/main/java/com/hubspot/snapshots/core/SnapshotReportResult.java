@@ -0,0 +1,38 @@
+package com.hubspot.snapshots.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SnapshotReportResult {
+  private final SnapshotVersion snapshot;
+  private final String error;
+
+  @JsonCreator
+  public SnapshotReportResult(@JsonProperty("snapshot") SnapshotVersion snapshot,
+                              @JsonProperty("error") String error) {
+    this.snapshot = snapshot;
+    this.error = error;
+  }
+
+  public static SnapshotReportResult success(SnapshotVersion snapshot) {
+    return new SnapshotReportResult(snapshot, null);
+  }
+
+  public static SnapshotReportResult failure(String error) {
+    return new SnapshotReportResult(null, error);
+  }
+
+  public SnapshotVersion getSnapshot() {
+    return snapshot;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  @JsonIgnore
+  public boolean isSuccess() {
+    return snapshot != null;
+  }
+}
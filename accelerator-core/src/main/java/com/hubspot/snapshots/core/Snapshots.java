@@ -4,7 +4,11 @@ import java.util.Collection;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
+// hasMore and nextOffset go first so clients streaming a page know where the next one
+// starts before they've read the versions
+@JsonPropertyOrder({ "hasMore", "nextOffset", "versions" })
 public class Snapshots {
   private final Collection<SnapshotVersion> versions;
   private final boolean hasMore;
@@ -0,0 +1,75 @@
+package com.hubspot.snapshots.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+  @Test
+  public void itContainsEverythingThatWasPut() {
+    BloomFilter filter = BloomFilter.create(1000, 0.01);
+    for (int i = 0; i < 1000; i++) {
+      filter.put(BloomFilter.coordinates("com.test", "artifact-" + i, "0.1-SNAPSHOT"));
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(filter.mightContain(BloomFilter.coordinates("com.test", "artifact-" + i, "0.1-SNAPSHOT"))).isTrue();
+    }
+  }
+
+  @Test
+  public void itRarelyContainsWhatWasNotPut() {
+    BloomFilter filter = BloomFilter.create(1000, 0.01);
+    for (int i = 0; i < 1000; i++) {
+      filter.put(BloomFilter.coordinates("com.test", "artifact-" + i, "0.1-SNAPSHOT"));
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (filter.mightContain(BloomFilter.coordinates("com.other", "artifact-" + i, "0.1-SNAPSHOT"))) {
+        falsePositives++;
+      }
+    }
+
+    assertThat(falsePositives).isLessThan(300);
+  }
+
+  @Test
+  public void itMatchesSnapshotsByCoordinates() {
+    BloomFilter filter = BloomFilter.create(10, 0.01);
+    filter.put(BloomFilter.coordinates("com.test", "test", "0.1-SNAPSHOT"));
+
+    assertThat(filter.mightContain(new SnapshotVersion(1, "com.test", "test", "0.1-SNAPSHOT", "0.1-20171129.222952-1"))).isTrue();
+  }
+
+  @Test
+  public void itRoundTripsThroughBytes() {
+    BloomFilter filter = BloomFilter.create(100, 0.01);
+    for (int i = 0; i < 100; i++) {
+      filter.put(BloomFilter.coordinates("com.test", "artifact-" + i, "0.1-SNAPSHOT"));
+    }
+
+    byte[] bytes = filter.toBytes();
+    BloomFilter copy = BloomFilter.fromBytes(bytes);
+    for (int i = 0; i < 100; i++) {
+      assertThat(copy.mightContain(BloomFilter.coordinates("com.test", "artifact-" + i, "0.1-SNAPSHOT"))).isTrue();
+    }
+    assertThat(copy.toBytes()).isEqualTo(bytes);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void itRejectsUnknownVersions() {
+    byte[] bytes = BloomFilter.create(10, 0.01).toBytes();
+    bytes[0] = 2;
+    BloomFilter.fromBytes(bytes);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void itRejectsTruncatedBytes() {
+    byte[] bytes = BloomFilter.create(10, 0.01).toBytes();
+    BloomFilter.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+  }
+}
@@ -0,0 +1,139 @@
+package com.hubspot.snapshots.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SnapshotCodecTest {
+
+  @Test
+  public void itRoundTripsPages() throws IOException {
+    List<SnapshotVersion> versions = Arrays.asList(
+            new SnapshotVersion(5, "com.test", "first", "0.1-SNAPSHOT", "0.1-20171129.222952-3"),
+            new SnapshotVersion(3, "com.test", "second", "1.0-SNAPSHOT", "1.0-20180101.000000-12"),
+            new SnapshotVersion(9, "com.other", "third", "2-SNAPSHOT", "2-not-a-timestamp")
+    );
+
+    Snapshots snapshots = roundTrip(new Snapshots(versions, true, 9));
+
+    assertThat(snapshots.hasMore()).isTrue();
+    assertThat(snapshots.getNextOffset()).isEqualTo(9);
+    assertSameVersions(new ArrayList<>(snapshots.getVersions()), versions);
+  }
+
+  @Test
+  public void itRoundTripsEmptyPages() throws IOException {
+    Snapshots snapshots = roundTrip(new Snapshots(new ArrayList<SnapshotVersion>(), false, 42));
+
+    assertThat(snapshots.getVersions()).isEmpty();
+    assertThat(snapshots.hasMore()).isFalse();
+    assertThat(snapshots.getNextOffset()).isEqualTo(42);
+  }
+
+  @Test
+  public void itKnowsWherePagesEndBeforeReadingThem() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SnapshotVersion snapshot = new SnapshotVersion(7, "com.test", "test", "0.1-SNAPSHOT", "0.1-20171129.222952-1");
+    SnapshotCodec.writeSnapshots(new Snapshots(Arrays.asList(snapshot), true, 7), output);
+
+    SnapshotCodec.Decoder decoder = SnapshotCodec.newDecoder(new ByteArrayInputStream(output.toByteArray()));
+    assertThat(decoder.isPageKnown()).isTrue();
+    assertThat(decoder.hasMore()).isTrue();
+    assertThat(decoder.getNextOffset()).isEqualTo(7);
+    assertThat(decoder.next().getId()).isEqualTo(7);
+    assertThat(decoder.next()).isNull();
+  }
+
+  @Test
+  public void itOnlyKnowsWhereStreamsEndAfterTheTrailer() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SnapshotCodec.Encoder encoder = SnapshotCodec.newEncoder(output);
+    encoder.write(new SnapshotVersion(7, "com.test", "test", "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+    encoder.writeTrailer(false, 8);
+
+    SnapshotCodec.Decoder decoder = SnapshotCodec.newDecoder(new ByteArrayInputStream(output.toByteArray()));
+    assertThat(decoder.isPageKnown()).isFalse();
+    assertThat(decoder.next().getId()).isEqualTo(7);
+    assertThat(decoder.next()).isNull();
+    assertThat(decoder.isPageKnown()).isTrue();
+    assertThat(decoder.hasMore()).isFalse();
+    assertThat(decoder.getNextOffset()).isEqualTo(8);
+  }
+
+  @Test
+  public void itReadsTheFirstFormatVersion() throws IOException {
+    // magic, version 1, a row with id 7, then a trailer, as written before pages had a header
+    byte[] bytes = {
+            'S', 1,
+            1, 14, 0, 8, 'c', 'o', 'm', '.', 't', 'e', 's', 't', 4, 't', 'e', 's', 't',
+            12, '0', '.', '1', '-', 'S', 'N', 'A', 'P', 'S', 'H', 'O', 'T', 0, 3, '0', '.', '1',
+            2, 0, 16
+    };
+
+    Snapshots snapshots = SnapshotCodec.readSnapshots(new ByteArrayInputStream(bytes));
+    SnapshotVersion snapshot = snapshots.getVersions().iterator().next();
+    assertThat(snapshot.getId()).isEqualTo(7);
+    assertThat(snapshot.getGroupId()).isEqualTo("com.test");
+    assertThat(snapshot.getArtifactId()).isEqualTo("test");
+    assertThat(snapshot.getBaseVersion()).isEqualTo("0.1-SNAPSHOT");
+    assertThat(snapshot.getResolvedVersion()).isEqualTo("0.1");
+    assertThat(snapshots.hasMore()).isFalse();
+    assertThat(snapshots.getNextOffset()).isEqualTo(8);
+  }
+
+  @Test(expected = EOFException.class)
+  public void itRejectsTruncatedInput() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SnapshotVersion snapshot = new SnapshotVersion(7, "com.test", "test", "0.1-SNAPSHOT", "0.1-20171129.222952-1");
+    SnapshotCodec.writeSnapshots(new Snapshots(Arrays.asList(snapshot), false, 7), output);
+
+    byte[] bytes = output.toByteArray();
+    SnapshotCodec.readSnapshots(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 2)));
+  }
+
+  @Test
+  public void itRejectsHugeStringLengthsBeforeAllocating() throws IOException {
+    // a row whose group id claims to be Integer.MAX_VALUE bytes long, as corrupt input might
+    byte[] bytes = { 'S', 1, 1, 14, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+
+    try {
+      SnapshotCodec.readSnapshots(new ByteArrayInputStream(bytes));
+      fail("Expected an IOException");
+    } catch (EOFException e) {
+      fail("Expected the length to be rejected before reading the string");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("too large");
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void itRejectsUnknownFormatVersions() throws IOException {
+    SnapshotCodec.newDecoder(new ByteArrayInputStream(new byte[] { 'S', 99 }));
+  }
+
+  private static Snapshots roundTrip(Snapshots snapshots) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SnapshotCodec.writeSnapshots(snapshots, output);
+    return SnapshotCodec.readSnapshots(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  private static void assertSameVersions(List<SnapshotVersion> actual, List<SnapshotVersion> expected) {
+    assertThat(actual).hasSize(expected.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(actual.get(i).getId()).isEqualTo(expected.get(i).getId());
+      assertThat(actual.get(i).getGroupId()).isEqualTo(expected.get(i).getGroupId());
+      assertThat(actual.get(i).getArtifactId()).isEqualTo(expected.get(i).getArtifactId());
+      assertThat(actual.get(i).getBaseVersion()).isEqualTo(expected.get(i).getBaseVersion());
+      assertThat(actual.get(i).getResolvedVersion()).isEqualTo(expected.get(i).getResolvedVersion());
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.hubspot.snapshots;
+
+/**
+ * The answer to whether a metadata check can be skipped, along with the reason when
+ * it can't.
+ */
+public enum AcceleratorDecision {
+  SKIP,
+  NOT_SNAPSHOT,
+  NO_REPOSITORY,
+  UNHEALTHY,
+  NO_LOCAL_METADATA,
+  UNREADABLE_METADATA,
+  UNKNOWN_TO_INDEX,
+  STALE_METADATA;
+
+  public boolean isSkip() {
+    return this == SKIP;
+  }
+}
@@ -1,104 +1,166 @@
 package com.hubspot.snapshots;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Properties;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
+import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.metadata.Metadata;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 public enum AcceleratorHelper {
   INSTANCE;
 
   private static final Logger LOG = LoggerFactory.getLogger(AcceleratorHelper.class);
-  private static final DocumentBuilderFactory DOCUMENT_FACTORY = DocumentBuilderFactory.newInstance();
+  private static final XMLInputFactory XML_FACTORY = newXmlInputFactory();
+  private static final String[] TIMESTAMP_PATH = { "versioning", "snapshot", "timestamp" };
+  private static final ConcurrentMap<Path, MetadataTimestamp> METADATA_TIMESTAMPS = new ConcurrentHashMap<>();
 
-  public boolean shouldSkipUpdate(LocalRepository localRepository, Metadata metadata, RemoteRepository repository) {
-    if (!AcceleratorUpdater.INSTANCE.isHealthy(localRepository)) {
-      return false;
-    } else if (metadata.getGroupId().isEmpty() || metadata.getArtifactId().isEmpty()) {
-      return false;
+  public boolean shouldSkipUpdate(RepositorySystemSession session, Metadata metadata, RemoteRepository repository) {
+    return decide(session, metadata, repository).isSkip();
+  }
+
+  /**
+   * Decides whether the metadata check can be skipped, and if not, why. Checks that
+   * the accelerator can't help with are answered before waiting for it to sync.
+   */
+  public AcceleratorDecision decide(RepositorySystemSession session, Metadata metadata, RemoteRepository repository) {
+    if (metadata.getGroupId().isEmpty() || metadata.getArtifactId().isEmpty()) {
+      return AcceleratorDecision.NOT_SNAPSHOT;
     } else if (metadata.getVersion().isEmpty() || !metadata.getVersion().endsWith("SNAPSHOT")) {
-      return false;
+      return AcceleratorDecision.NOT_SNAPSHOT;
     } else if (repository == null) {
-      return false;
+      return AcceleratorDecision.NO_REPOSITORY;
+    } else if (!AcceleratorUpdater.INSTANCE.isHealthy(session)) {
+      return AcceleratorDecision.UNHEALTHY;
     }
 
-    Path acceleratorMetadata = AcceleratorUtils.INSTANCE.snapshotInfoPath(localRepository, metadata);
+    LocalRepository localRepository = session.getLocalRepository();
     Path mavenMetadata = AcceleratorUtils.INSTANCE.mavenMetadataPath(localRepository, metadata, repository);
 
     if (!Files.isDirectory(mavenMetadata.getParent())) {
-      return false;
+      return AcceleratorDecision.NO_LOCAL_METADATA;
     }
 
-    String mavenTimestamp = loadMavenMetadataTimestamp(mavenMetadata);
-    if (mavenTimestamp == null) {
-      return false;
+    long mavenTimestamp = loadMavenMetadataTimestamp(mavenMetadata);
+    if (mavenTimestamp < 0) {
+      return AcceleratorDecision.UNREADABLE_METADATA;
     }
 
-    String acceleratorTimestamp = loadAcceleratorMetadataTimestamp(acceleratorMetadata);
-    if (acceleratorTimestamp == null) {
-      return true;
+    AcceleratorIndex index = AcceleratorUpdater.INSTANCE.getIndex(localRepository);
+    long acceleratorTimestamp = index.getTimestamp(metadata.getGroupId(), metadata.getArtifactId(), metadata.getVersion());
+    if (acceleratorTimestamp == AcceleratorIndex.UNKNOWN) {
+      return AcceleratorDecision.UNKNOWN_TO_INDEX;
+    } else if (acceleratorTimestamp == AcceleratorIndex.ABSENT) {
+      return AcceleratorDecision.SKIP;
     }
 
-    return acceleratorTimestamp.compareTo(mavenTimestamp) <= 0;
+    return acceleratorTimestamp <= mavenTimestamp ? AcceleratorDecision.SKIP : AcceleratorDecision.STALE_METADATA;
   }
 
-  private static String loadAcceleratorMetadataTimestamp(Path path) {
-    Properties acceleratorMetadata = AcceleratorUtils.INSTANCE.readProperties(path);
-    if (acceleratorMetadata == null) {
-      return null;
-    }
-
-    return acceleratorMetadata.getProperty(AcceleratorUtils.LATEST_SNAPSHOT_TIMESTAMP);
+  /**
+   * Whether the accelerator has finished a successful sync for this session, without
+   * waiting for one that's still running. Until then {@link #shouldSkipUpdate} answers
+   * may change.
+   */
+  public boolean isSynced(RepositorySystemSession session) {
+    return AcceleratorUpdater.INSTANCE.isSynced(session);
   }
 
-  private static String loadMavenMetadataTimestamp(Path path) {
+  /**
+   * Returns the parsed snapshot timestamp of the maven metadata at {@code path}, or -1
+   * if it can't be read. Results are cached by path until the file's modification
+   * time or size changes, since the same metadata is checked for every module and
+   * repository that depends on it.
+   */
+  private static long loadMavenMetadataTimestamp(Path path) {
+    BasicFileAttributes attributes;
     try {
-      DocumentBuilder builder = DOCUMENT_FACTORY.newDocumentBuilder();
-      Element element = builder.parse(path.toFile()).getDocumentElement();
-      element.normalize();
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      LOG.debug("Error reading attributes of maven metadata at path " + path, e);
+      return -1;
+    }
 
-      Node versioning = getChild(element, "versioning");
-      if (versioning == null) {
-        return null;
-      }
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    long size = attributes.size();
 
-      Node snapshot = getChild(versioning, "snapshot");
-      if (snapshot == null) {
-        return null;
-      }
+    MetadataTimestamp cached = METADATA_TIMESTAMPS.get(path);
+    if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+      return cached.timestamp;
+    }
+
+    long timestamp = AcceleratorIndex.parseTimestamp(parseMavenMetadataTimestamp(path));
+    METADATA_TIMESTAMPS.put(path, new MetadataTimestamp(lastModified, size, timestamp));
+    return timestamp;
+  }
+
+  /**
+   * Streams the metadata until it reaches {@code versioning/snapshot/timestamp}, rather
+   * than building a document for the whole file.
+   */
+  static String parseMavenMetadataTimestamp(Path path) {
+    try (InputStream input = Files.newInputStream(path)) {
+      XMLStreamReader reader = XML_FACTORY.createXMLStreamReader(input);
+      try {
+        int depth = 0;
+        int matched = 0;
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+            // only descend into the path from the children of the root element
+            if (depth == matched + 2 && TIMESTAMP_PATH[matched].equals(reader.getLocalName())) {
+              matched++;
+              if (matched == TIMESTAMP_PATH.length) {
+                return reader.getElementText().trim();
+              }
+            }
+          } else if (event == XMLStreamConstants.END_ELEMENT) {
+            if (matched > 0 && depth == matched + 1) {
+              matched--;
+            }
+            depth--;
+          }
+        }
 
-      Node timestamp = getChild(snapshot, "timestamp");
-      if (timestamp == null) {
         return null;
+      } finally {
+        reader.close();
       }
-
-      return timestamp.getTextContent();
     } catch (Exception e) {
       LOG.debug("Error parsing maven metadata at path " + path, e);
       return null;
     }
   }
 
-  private static Node getChild(Node node, String name) {
-    NodeList children = node.getChildNodes();
-    for (int i = 0; i < children.getLength(); i++) {
-      Node child = children.item(i);
-      if (name.equals(child.getNodeName())) {
-        return child;
-      }
-    }
+  private static XMLInputFactory newXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
 
-    return null;
+  private static class MetadataTimestamp {
+    private final long lastModified;
+    private final long size;
+    private final long timestamp;
+
+    private MetadataTimestamp(long lastModified, long size, long timestamp) {
+      this.lastModified = lastModified;
+      this.size = size;
+      this.timestamp = timestamp;
+    }
   }
 }
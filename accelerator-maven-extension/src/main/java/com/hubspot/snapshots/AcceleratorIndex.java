@@ -0,0 +1,486 @@
+package com.hubspot.snapshots;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+/**
+ * All of the accelerator's snapshot info in a single memory-mapped file in the local
+ * repository: an open addressing hash table keyed by a 128 bit hash of the GAV, with
+ * the latest snapshot timestamp, build number and id of each snapshot, plus the
+ * offset that the table has been synced up to.
+ *
+ * Slots are updated in place. A slot is marked as being written before its fields
+ * change and committed after, so a slot that a crash left half written reads as
+ * {@link #UNKNOWN}. The synced offset only moves after the slots have been forced to
+ * disk, so anything lost in a crash is re-applied by the next sync. The file never
+ * shrinks, so another process can't pull pages out from under a mapping.
+ */
+class AcceleratorIndex implements Closeable {
+  static final long ABSENT = 0;
+  static final long UNKNOWN = -1;
+
+  // sorts after any real timestamp, so checks for snapshots we can't parse aren't skipped
+  private static final long UNPARSEABLE_TIMESTAMP = Long.MAX_VALUE;
+
+  private static final int MAGIC = 0x41434958;
+  private static final int FORMAT_VERSION = 1;
+  private static final int INITIAL_CAPACITY = 1 << 14;
+  private static final int MAX_CAPACITY = 1 << 25;
+
+  private static final int HEADER_SIZE = 32;
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int STATE_OFFSET = 8;
+  private static final int CAPACITY_OFFSET = 12;
+  private static final int SIZE_OFFSET = 16;
+  private static final int SYNCED_OFFSET = 20;
+
+  private static final int STATE_OK = 0;
+  private static final int STATE_REBUILDING = 1;
+
+  private static final int SLOT_SIZE = 40;
+  private static final int SLOT_STATE = 0;
+  private static final int SLOT_BUILD = 4;
+  private static final int SLOT_HASH_HI = 8;
+  private static final int SLOT_HASH_LO = 16;
+  private static final int SLOT_TIMESTAMP = 24;
+  private static final int SLOT_ID = 32;
+
+  private static final int EMPTY = 0;
+  private static final int WRITING = 1;
+  private static final int COMMITTED = 2;
+
+  private static final long LOCK_POLL_MILLIS = 50;
+
+  private final FileChannel channel;
+  private final boolean fresh;
+  private final ReentrantReadWriteLock lock;
+  private MappedByteBuffer buffer;
+  private int capacity;
+
+  private AcceleratorIndex(FileChannel channel, boolean fresh) throws IOException {
+    this.channel = channel;
+    this.fresh = fresh;
+    this.lock = new ReentrantReadWriteLock();
+    map(readCapacity(channel));
+  }
+
+  /**
+   * Opens the index at {@code path}, creating it (or wiping it, if it isn't valid)
+   * with a synced offset of 0. Returns null if another process still holds the lock
+   * after {@code timeoutMillis}, since checking the file needs it.
+   */
+  static AcceleratorIndex open(Path path, long timeoutMillis) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    try {
+      FileLock fileLock = tryLock(channel, timeoutMillis);
+      if (fileLock == null) {
+        channel.close();
+        return null;
+      }
+
+      boolean fresh;
+      try (FileLock ignored = fileLock) {
+        fresh = !isValid(channel);
+        if (fresh) {
+          reset(channel);
+        }
+      }
+
+      return new AcceleratorIndex(channel, fresh);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Whether this index was created (or wiped) when it was opened.
+   */
+  boolean isFresh() {
+    return fresh;
+  }
+
+  /**
+   * Locks the index against updates from other processes, until the lock is released.
+   * Gives up and returns null if another process still holds the lock after
+   * {@code timeoutMillis}. The OS releases the lock when the holding process exits,
+   * so a crashed build never leaves it held.
+   */
+  FileLock tryLockForUpdate(long timeoutMillis) throws IOException {
+    FileLock fileLock = tryLock(channel, timeoutMillis);
+    if (fileLock != null) {
+      remapAfterLocking();
+    }
+    return fileLock;
+  }
+
+  private static FileLock tryLock(FileChannel channel, long timeoutMillis) throws IOException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    FileLock fileLock;
+    while ((fileLock = tryLockOnce(channel)) == null) {
+      if (System.currentTimeMillis() >= deadline) {
+        return null;
+      }
+
+      try {
+        Thread.sleep(LOCK_POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for accelerator index lock", e);
+      }
+    }
+
+    return fileLock;
+  }
+
+  private static FileLock tryLockOnce(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // held through another channel in this process, like a copy of the extension
+      // loaded by another class loader, which has to be waited for the same way
+      return null;
+    }
+  }
+
+  private void remapAfterLocking() throws IOException {
+    lock.writeLock().lock();
+    try {
+      remapIfGrown();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  int getSyncedOffset() {
+    return buffer.getInt(SYNCED_OFFSET);
+  }
+
+  /**
+   * Returns the latest snapshot timestamp for the GAV, {@link #ABSENT} if the
+   * accelerator has never seen it, or {@link #UNKNOWN} if it can't be trusted.
+   */
+  long getTimestamp(String groupId, String artifactId, String baseVersion) {
+    long[] hash = hash(groupId, artifactId, baseVersion);
+
+    lock.readLock().lock();
+    try {
+      if (buffer.getInt(CAPACITY_OFFSET) == capacity) {
+        return getTimestamp(hash[0], hash[1]);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    // another process grew the file
+    lock.writeLock().lock();
+    try {
+      remapIfGrown();
+      return getTimestamp(hash[0], hash[1]);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Stores the snapshot unless the index already has the same or a newer id for it.
+   * The caller should hold {@link #tryLockForUpdate(long)}.
+   */
+  void put(SnapshotVersion snapshot) {
+    long[] hash = hash(snapshot.getGroupId(), snapshot.getArtifactId(), snapshot.getBaseVersion());
+    long timestamp = parseTimestamp(timestamp(snapshot));
+    if (timestamp < 0) {
+      timestamp = UNPARSEABLE_TIMESTAMP;
+    }
+
+    lock.writeLock().lock();
+    try {
+      remapIfGrown();
+      if ((buffer.getInt(SIZE_OFFSET) + 1) * 2L > capacity) {
+        grow();
+      }
+
+      int base = findSlot(hash[0], hash[1]);
+      int state = buffer.getInt(base + SLOT_STATE);
+      if (state == COMMITTED && buffer.getInt(base + SLOT_ID) >= snapshot.getId()) {
+        return;
+      }
+
+      writeSlot(base, hash[0], hash[1], timestamp, build(snapshot), snapshot.getId());
+      if (state == EMPTY) {
+        buffer.putInt(SIZE_OFFSET, buffer.getInt(SIZE_OFFSET) + 1);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Forces every update to disk, then records {@code offset} as synced.
+   */
+  void checkpoint(int offset) {
+    lock.writeLock().lock();
+    try {
+      buffer.force();
+      buffer.putInt(SYNCED_OFFSET, offset);
+      buffer.force();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Parses a snapshot timestamp like {@code 20171129.222952} into a number that sorts
+   * the same way, or returns -1 if it isn't in that form.
+   */
+  static long parseTimestamp(String timestamp) {
+    if (timestamp == null || timestamp.length() != 15 || timestamp.charAt(8) != '.') {
+      return -1;
+    }
+
+    long value = 0;
+    for (int i = 0; i < timestamp.length(); i++) {
+      char c = timestamp.charAt(i);
+      if (i == 8) {
+        continue;
+      } else if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+
+    return value;
+  }
+
+  private long getTimestamp(long hashHi, long hashLo) {
+    if (buffer.getInt(STATE_OFFSET) != STATE_OK) {
+      return UNKNOWN;
+    }
+
+    int mask = capacity - 1;
+    int slot = (int) hashHi & mask;
+    for (int i = 0; i < capacity; i++) {
+      int base = HEADER_SIZE + slot * SLOT_SIZE;
+      int state = buffer.getInt(base + SLOT_STATE);
+      if (state == EMPTY) {
+        return ABSENT;
+      } else if (buffer.getLong(base + SLOT_HASH_HI) == hashHi && buffer.getLong(base + SLOT_HASH_LO) == hashLo) {
+        return state == COMMITTED ? buffer.getLong(base + SLOT_TIMESTAMP) : UNKNOWN;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return ABSENT;
+  }
+
+  private int findSlot(long hashHi, long hashLo) {
+    int mask = capacity - 1;
+    int slot = (int) hashHi & mask;
+    while (true) {
+      int base = HEADER_SIZE + slot * SLOT_SIZE;
+      if (buffer.getInt(base + SLOT_STATE) == EMPTY) {
+        return base;
+      } else if (buffer.getLong(base + SLOT_HASH_HI) == hashHi && buffer.getLong(base + SLOT_HASH_LO) == hashLo) {
+        return base;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void writeSlot(int base, long hashHi, long hashLo, long timestamp, int build, int id) {
+    buffer.putInt(base + SLOT_STATE, WRITING);
+    buffer.putLong(base + SLOT_HASH_HI, hashHi);
+    buffer.putLong(base + SLOT_HASH_LO, hashLo);
+    buffer.putLong(base + SLOT_TIMESTAMP, timestamp);
+    buffer.putInt(base + SLOT_BUILD, build);
+    buffer.putInt(base + SLOT_ID, id);
+    buffer.putInt(base + SLOT_STATE, COMMITTED);
+  }
+
+  private void grow() {
+    if (capacity >= MAX_CAPACITY) {
+      throw new IllegalStateException("Accelerator index is full");
+    }
+
+    byte[] slots = new byte[capacity * SLOT_SIZE];
+    buffer.position(HEADER_SIZE);
+    buffer.get(slots);
+    buffer.position(0);
+
+    // readers in other processes see this and stop trusting the index until we're done
+    buffer.putInt(STATE_OFFSET, STATE_REBUILDING);
+    buffer.force();
+
+    int newCapacity = capacity * 2;
+    try {
+      map(newCapacity);
+    } catch (IOException e) {
+      throw new RuntimeException("Error growing accelerator index", e);
+    }
+
+    clearSlots();
+    ByteBuffer old = ByteBuffer.wrap(slots);
+    int size = 0;
+    for (int base = 0; base < slots.length; base += SLOT_SIZE) {
+      if (old.getInt(base + SLOT_STATE) == COMMITTED) {
+        long hashHi = old.getLong(base + SLOT_HASH_HI);
+        long hashLo = old.getLong(base + SLOT_HASH_LO);
+        writeSlot(
+                findSlot(hashHi, hashLo),
+                hashHi,
+                hashLo,
+                old.getLong(base + SLOT_TIMESTAMP),
+                old.getInt(base + SLOT_BUILD),
+                old.getInt(base + SLOT_ID)
+        );
+        size++;
+      }
+    }
+
+    buffer.putInt(SIZE_OFFSET, size);
+    buffer.putInt(CAPACITY_OFFSET, newCapacity);
+    buffer.force();
+    buffer.putInt(STATE_OFFSET, STATE_OK);
+    buffer.force();
+  }
+
+  private void clearSlots() {
+    for (int base = HEADER_SIZE; base < HEADER_SIZE + capacity * SLOT_SIZE; base += SLOT_SIZE) {
+      buffer.putInt(base + SLOT_STATE, EMPTY);
+    }
+  }
+
+  private void remapIfGrown() {
+    int current = buffer.getInt(CAPACITY_OFFSET);
+    if (current != capacity) {
+      try {
+        map(current);
+      } catch (IOException e) {
+        throw new RuntimeException("Error remapping accelerator index", e);
+      }
+    }
+  }
+
+  private void map(int capacity) throws IOException {
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+    this.capacity = capacity;
+  }
+
+  private static boolean isValid(FileChannel channel) throws IOException {
+    if (channel.size() < HEADER_SIZE) {
+      return false;
+    }
+
+    ByteBuffer header = readHeader(channel);
+    int capacity = header.getInt(CAPACITY_OFFSET);
+    return header.getInt(MAGIC_OFFSET) == MAGIC
+            && header.getInt(VERSION_OFFSET) == FORMAT_VERSION
+            && header.getInt(STATE_OFFSET) == STATE_OK
+            && capacity > 0
+            && capacity <= MAX_CAPACITY
+            && Integer.bitCount(capacity) == 1
+            && channel.size() >= fileSize(capacity);
+  }
+
+  private static void reset(FileChannel channel) throws IOException {
+    // reuse the space the file already has, other processes may still have it mapped
+    int capacity = INITIAL_CAPACITY;
+    while (capacity < MAX_CAPACITY && fileSize(capacity) < channel.size()) {
+      capacity *= 2;
+    }
+
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+    buffer.putInt(STATE_OFFSET, STATE_REBUILDING);
+    buffer.force();
+
+    for (int base = HEADER_SIZE; base < HEADER_SIZE + capacity * SLOT_SIZE; base += SLOT_SIZE) {
+      buffer.putInt(base + SLOT_STATE, EMPTY);
+    }
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putInt(SIZE_OFFSET, 0);
+    buffer.putInt(SYNCED_OFFSET, 0);
+    buffer.putInt(VERSION_OFFSET, FORMAT_VERSION);
+    buffer.putInt(MAGIC_OFFSET, MAGIC);
+    buffer.force();
+    buffer.putInt(STATE_OFFSET, STATE_OK);
+    buffer.force();
+  }
+
+  private static int readCapacity(FileChannel channel) throws IOException {
+    return readHeader(channel).getInt(CAPACITY_OFFSET);
+  }
+
+  private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+      // keep reading
+    }
+
+    header.flip();
+    return header;
+  }
+
+  private static long fileSize(int capacity) {
+    return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+  }
+
+  private static String timestamp(SnapshotVersion snapshot) {
+    try {
+      return snapshot.getTimestamp();
+    } catch (IllegalStateException e) {
+      return null;
+    }
+  }
+
+  private static int build(SnapshotVersion snapshot) {
+    String resolvedVersion = snapshot.getResolvedVersion();
+    try {
+      return Integer.parseInt(resolvedVersion.substring(resolvedVersion.lastIndexOf('-') + 1));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static long[] hash(String groupId, String artifactId, String baseVersion) {
+    byte[] bytes = (groupId + ':' + artifactId + ':' + baseVersion).getBytes(StandardCharsets.UTF_8);
+
+    // two independent 64 bit FNV-1a hashes, each run through a murmur3 finalizer
+    long hi = 0xcbf29ce484222325L;
+    long lo = 0x84222325cbf29ce4L;
+    for (byte b : bytes) {
+      hi = (hi ^ (b & 0xff)) * 0x100000001b3L;
+      lo = (lo ^ (b & 0xff)) * 0x100000001b3L;
+      lo = Long.rotateLeft(lo, 31);
+    }
+
+    return new long[] { fmix(hi), fmix(lo) };
+  }
+
+  private static long fmix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
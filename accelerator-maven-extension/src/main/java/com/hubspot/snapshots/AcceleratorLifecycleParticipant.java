@@ -0,0 +1,82 @@
+package com.hubspot.snapshots;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Starts the accelerator sync as soon as the session starts, so it runs while Maven
+ * is still loading POMs and calculating the reactor, along with prefetching of the
+ * snapshots it finds changed if that's enabled. When the session ends, logs how often
+ * the accelerator let the build skip a metadata check and writes the same numbers to
+ * {@code target/accelerator-report.json} of the top level project.
+ */
+@Named
+@Singleton
+public class AcceleratorLifecycleParticipant extends AbstractMavenLifecycleParticipant {
+  private static final Logger LOG = LoggerFactory.getLogger(AcceleratorLifecycleParticipant.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String REPORT_FILENAME = "accelerator-report.json";
+
+  private final RepositorySystem repositorySystem;
+
+  @Inject
+  public AcceleratorLifecycleParticipant(RepositorySystem repositorySystem) {
+    this.repositorySystem = repositorySystem;
+  }
+
+  @Override
+  public void afterSessionStart(MavenSession session) {
+    RepositorySystemSession repositorySession = session.getRepositorySession();
+    if (repositorySession.getLocalRepository() == null) {
+      return;
+    }
+
+    SnapshotPrefetcher prefetcher = null;
+    if (SnapshotPrefetcher.isEnabled()) {
+      List<RemoteRepository> repositories = repositorySystem.newResolutionRepositories(
+          repositorySession,
+          RepositoryUtils.toRepos(session.getRequest().getRemoteRepositories())
+      );
+      prefetcher = SnapshotPrefetcher.fromSystemProperties(repositorySystem, repositorySession, repositories);
+    }
+
+    AcceleratorUpdater.INSTANCE.startSync(repositorySession, prefetcher);
+  }
+
+  @Override
+  public void afterSessionEnd(MavenSession session) {
+    AcceleratorStats stats = AcceleratorStats.forSession(session.getRepositorySession());
+    LOG.info(stats.summary());
+
+    MavenProject topLevelProject = session.getTopLevelProject();
+    if (topLevelProject == null || topLevelProject.getBuild().getDirectory() == null) {
+      return;
+    }
+
+    File report = new File(topLevelProject.getBuild().getDirectory(), REPORT_FILENAME);
+    try {
+      Files.createDirectories(report.getParentFile().toPath());
+      MAPPER.writerWithDefaultPrettyPrinter().writeValue(report, stats.toReport());
+    } catch (IOException e) {
+      LOG.debug("Error writing accelerator report to " + report, e);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.hubspot.snapshots;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+
+/**
+ * Counts how the accelerator was used during a build, so its hit rate can be
+ * reported at the end of the session. Kept in the session data so every build under
+ * a long-lived process gets its own.
+ */
+public class AcceleratorStats {
+  private static final String SESSION_STATS = "accelerator.stats";
+
+  private final AtomicInteger metadataChecks;
+  private final AtomicInteger notDue;
+  private final AtomicInteger forced;
+  private final Map<AcceleratorDecision, AtomicInteger> decisions;
+  private volatile boolean syncFinished;
+  private volatile boolean syncHealthy;
+  private volatile boolean deltaFetched;
+  private volatile long syncMillis;
+  private volatile int rowsApplied;
+  private volatile long degradedIndexAgeMillis = -1;
+
+  private AcceleratorStats() {
+    this.metadataChecks = new AtomicInteger();
+    this.notDue = new AtomicInteger();
+    this.forced = new AtomicInteger();
+    this.decisions = new EnumMap<>(AcceleratorDecision.class);
+    for (AcceleratorDecision decision : AcceleratorDecision.values()) {
+      decisions.put(decision, new AtomicInteger());
+    }
+  }
+
+  public static AcceleratorStats forSession(RepositorySystemSession session) {
+    SessionData data = session.getData();
+    Object stats = data.get(SESSION_STATS);
+    while (!(stats instanceof AcceleratorStats)) {
+      Object old = stats;
+      stats = new AcceleratorStats();
+      if (data.set(SESSION_STATS, old, stats)) {
+        break;
+      }
+      stats = data.get(SESSION_STATS);
+    }
+
+    return (AcceleratorStats) stats;
+  }
+
+  public void recordMetadataCheck() {
+    metadataChecks.incrementAndGet();
+  }
+
+  /**
+   * The update policy said the metadata didn't need checking yet, so the accelerator
+   * wasn't asked.
+   */
+  public void recordNotDue() {
+    notDue.incrementAndGet();
+  }
+
+  public void recordForced() {
+    forced.incrementAndGet();
+  }
+
+  public void recordDecision(AcceleratorDecision decision) {
+    decisions.get(decision).incrementAndGet();
+  }
+
+  void recordSync(boolean healthy, boolean fetched, long millis, int rows) {
+    this.syncHealthy = healthy;
+    this.deltaFetched = fetched;
+    this.syncMillis = millis;
+    this.rowsApplied = rows;
+    this.syncFinished = true;
+  }
+
+  /**
+   * The sync failed but the build is using the index from an earlier sync this old.
+   */
+  void recordDegraded(long indexAgeMillis) {
+    this.degradedIndexAgeMillis = indexAgeMillis;
+  }
+
+  public String summary() {
+    int consulted = consulted();
+    int skipped = decisions.get(AcceleratorDecision.SKIP).get();
+
+    StringBuilder summary = new StringBuilder("Accelerator skipped ")
+        .append(skipped)
+        .append(" of ")
+        .append(consulted)
+        .append(" snapshot metadata checks");
+    if (consulted > 0) {
+      summary.append(" (").append(Math.round(100.0 * skipped / consulted)).append("%)");
+    }
+
+    if (!syncFinished) {
+      summary.append(", sync didn't finish");
+    } else if (!syncHealthy) {
+      summary.append(", sync failed after ").append(syncMillis).append("ms");
+      if (degradedIndexAgeMillis >= 0) {
+        summary.append(" (degraded mode, index ").append(TimeUnit.MILLISECONDS.toMinutes(degradedIndexAgeMillis)).append(" minutes old)");
+      }
+    } else if (deltaFetched) {
+      summary.append(", synced ").append(rowsApplied).append(" snapshots in ").append(syncMillis).append("ms");
+    } else {
+      summary.append(", reused a recent sync");
+    }
+
+    String separator = "; fell through: ";
+    for (Entry<AcceleratorDecision, AtomicInteger> entry : decisions.entrySet()) {
+      if (entry.getKey() != AcceleratorDecision.SKIP && entry.getValue().get() > 0) {
+        summary.append(separator).append(entry.getValue().get()).append(' ').append(entry.getKey().name().toLowerCase());
+        separator = ", ";
+      }
+    }
+
+    return summary.toString();
+  }
+
+  public Map<String, Object> toReport() {
+    int consulted = consulted();
+    int skipped = decisions.get(AcceleratorDecision.SKIP).get();
+
+    Map<String, Integer> fallThrough = new LinkedHashMap<>();
+    for (Entry<AcceleratorDecision, AtomicInteger> entry : decisions.entrySet()) {
+      if (entry.getKey() != AcceleratorDecision.SKIP) {
+        fallThrough.put(entry.getKey().name(), entry.getValue().get());
+      }
+    }
+
+    Map<String, Object> sync = new LinkedHashMap<>();
+    sync.put("finished", syncFinished);
+    sync.put("healthy", syncHealthy);
+    sync.put("deltaFetched", deltaFetched);
+    sync.put("millis", syncMillis);
+    sync.put("rowsApplied", rowsApplied);
+    sync.put("degraded", degradedIndexAgeMillis >= 0);
+    if (degradedIndexAgeMillis >= 0) {
+      sync.put("degradedIndexAgeMillis", degradedIndexAgeMillis);
+    }
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("metadataChecks", metadataChecks.get());
+    report.put("notDue", notDue.get());
+    report.put("forced", forced.get());
+    report.put("consulted", consulted);
+    report.put("skipped", skipped);
+    report.put("hitRate", consulted == 0 ? 0 : (double) skipped / consulted);
+    report.put("fallThrough", fallThrough);
+    report.put("sync", sync);
+    return report;
+  }
+
+  private int consulted() {
+    int consulted = 0;
+    for (AtomicInteger count : decisions.values()) {
+      consulted += count.get();
+    }
+
+    return consulted;
+  }
+}
@@ -1,18 +1,38 @@
 package com.hubspot.snapshots;
 
-import java.nio.file.Files;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileLock;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
 import org.eclipse.aether.repository.LocalRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.hubspot.snapshots.client.AcceleratorClient;
+import com.hubspot.snapshots.core.BloomFilter;
 import com.hubspot.snapshots.core.SnapshotVersion;
 
 public enum AcceleratorUpdater {
@@ -20,92 +40,578 @@ public enum AcceleratorUpdater {
 
   private static final Logger LOG = LoggerFactory.getLogger(AcceleratorUpdater.class);
 
-  private static final AtomicReference<Boolean> HEALTHY = new AtomicReference<>();
+  private static final String SESSION_SYNC = "accelerator.sync";
 
-  private static boolean initialize(LocalRepository localRepository) {
-    int offset = loadAcceleratorOffset(localRepository);
-    LOG.debug("Loaded accelerator offset " + offset);
+  // indexes stay open for the life of the process, so a long-lived process (like the
+  // Maven daemon) only has to sync what changed since its last build
+  private static final ConcurrentMap<Path, AcceleratorIndex> INDEXES = new ConcurrentHashMap<>();
+  private static final ReentrantLock SYNC_LOCK = new ReentrantLock();
 
-    int maxId = offset;
-    int updated = 0;
+  private static final long DEFAULT_SYNC_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long DEFAULT_SYNC_BUDGET_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+  // after this many failed syncs in a row, builds stop calling the accelerator for a
+  // backoff period that doubles with every further failure
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final long DEFAULT_FAILURE_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long MAX_FAILURE_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+  // the delta filter and segments only pay off when the delta is likely to be large
+  private static final long FAR_BEHIND_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final double DELTA_FILTER_FPP = 0.01;
+
+  private static final int BATCH_SIZE = 1000;
+  private static final int QUEUED_BATCHES = 4;
+  private static final List<SnapshotVersion> END_OF_DELTA = Collections.emptyList();
+
+  /**
+   * Syncs the index for the local repository unless another build just did, and
+   * returns whether it can be used to skip snapshot checks.
+   */
+  static boolean initialize(LocalRepository localRepository,
+                            SnapshotPrefetcher prefetcher,
+                            AcceleratorStats stats,
+                            long syncDeadline,
+                            long budgetDeadline) {
+    long start = System.currentTimeMillis();
+    // builds sharing the local repository take turns syncing, and a build that had to
+    // wait reuses the sync that finished while it was waiting, as does a build that
+    // starts within the freshness window of the last sync. Another process holds the
+    // index lock while it syncs, so the wait can start as early as opening the index
+    long syncedSince = start - freshnessWindowMillis();
+    int offset = 0;
+    // waiting for other builds counts against the budget too
+    syncDeadline = Math.min(syncDeadline, budgetDeadline);
     try {
-      Iterator<SnapshotVersion> iter = AcceleratorClient.detectingBaseUrl().getDelta(offset);
-      while (iter.hasNext()) {
-        SnapshotVersion snapshot = iter.next();
-        updateSnapshotInfo(localRepository, snapshot);
-        maxId = Math.max(maxId, snapshot.getId());
-        updated++;
+      AcceleratorIndex index = openIndex(localRepository, Math.max(syncDeadline - System.currentTimeMillis(), 0));
+      if (index == null) {
+        LOG.warn("Another build is still syncing the accelerator");
+        stats.recordSync(false, false, System.currentTimeMillis() - start, 0);
+        return fallBack(localRepository, stats);
+      }
+
+      if (!SYNC_LOCK.tryLock(Math.max(syncDeadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS)) {
+        LOG.warn("Another build is still syncing the accelerator");
+        stats.recordSync(false, false, System.currentTimeMillis() - start, 0);
+        return fallBack(localRepository, stats);
       }
 
-      LOG.debug("Processed " + updated + " new snapshots");
-      writeAcceleratorInfo(localRepository, maxId);
-      LOG.debug("Wrote new accelerator offset " + maxId  + " to disk");
+      try {
+        FileLock fileLock = index.tryLockForUpdate(Math.max(syncDeadline - System.currentTimeMillis(), 0));
+        if (fileLock == null) {
+          LOG.warn("Another build is still syncing the accelerator");
+          stats.recordSync(false, false, System.currentTimeMillis() - start, 0);
+          return fallBack(localRepository, stats);
+        }
+
+        try (FileLock ignored = fileLock) {
+          offset = index.getSyncedOffset();
+          LOG.debug("Loaded accelerator offset " + offset);
+
+          long retryAfter = retryAfter(localRepository);
+
+          if (wasSyncedSince(localRepository, index, syncedSince)) {
+            LOG.debug("Accelerator was synced recently at offset " + offset + ", not fetching the delta");
+            stats.recordSync(true, false, System.currentTimeMillis() - start, 0);
+          } else if (retryAfter > System.currentTimeMillis()) {
+            LOG.warn("Accelerator failed repeatedly, not calling it again until {}", new Date(retryAfter));
+            stats.recordSync(false, false, System.currentTimeMillis() - start, 0);
+            return fallBack(localRepository, stats);
+          } else {
+            AcceleratorClient client = AcceleratorClient.detectingBaseUrl();
+            Iterator<SnapshotVersion> iter;
+            if (isFarBehind(localRepository, offset)) {
+              iter = client.getDeltaFromSegments(offset, deltaFilter(localRepository));
+            } else {
+              iter = client.getDelta(offset);
+            }
+
+            // a sync from the start gets the whole delta, which says nothing about what changed
+            List<SnapshotVersion> applied = prefetcher == null || offset == 0 ? null : new ArrayList<SnapshotVersion>();
+            AtomicInteger rows = new AtomicInteger();
+            int maxId = applyDelta(index, iter, offset, applied, rows, budgetDeadline);
+            index.checkpoint(maxId);
+            writeAcceleratorInfo(localRepository, maxId);
+            LOG.debug("Wrote new accelerator offset " + maxId  + " to disk");
+
+            stats.recordSync(true, true, System.currentTimeMillis() - start, rows.get());
+
+            if (applied != null) {
+              prefetcher.prefetch(localRepository, applied);
+            }
+          }
+        }
+      } finally {
+        SYNC_LOCK.unlock();
+      }
 
       LOG.info("Accelerator is healthy, will skip snapshot checks based on accelerator metadata");
       return true;
+    } catch (BudgetExceededException e) {
+      LOG.warn("Accelerator sync didn't finish within {}ms", syncBudgetMillis());
+      recordAcceleratorFailure(localRepository, offset, e);
+      stats.recordSync(false, true, System.currentTimeMillis() - start, 0);
+      return fallBack(localRepository, stats);
     } catch (Exception e) {
       LOG.warn("Unable to connect to the accelerator API at {}", AcceleratorClient.detectedDeltaUrl());
-      LOG.warn("Will need to check for all snapshot updates");
       recordAcceleratorFailure(localRepository, offset, e);
-      return false;
+      stats.recordSync(false, true, System.currentTimeMillis() - start, 0);
+      return fallBack(localRepository, stats);
+    }
+  }
+
+  /**
+   * Decides what a build does after its sync failed. Normally it checks every
+   * snapshot, but in degraded mode (enabled by setting {@code accelerator.maxStaleness})
+   * it keeps using the index as of the last successful sync, as long as that sync
+   * isn't older than the bound and the index still has everything it applied.
+   * Returns whether the index can still be used.
+   */
+  private static boolean fallBack(LocalRepository localRepository, AcceleratorStats stats) {
+    long maxStaleness = maxStalenessMillis();
+    Properties status = readStatus(localRepository);
+    long lastSuccess = lastSuccessTimestamp(status);
+    long age = System.currentTimeMillis() - lastSuccess;
+    if (maxStaleness > 0 && lastSuccess > 0 && age <= maxStaleness && hasLastSuccess(localRepository, status)) {
+      LOG.warn("Accelerator is in DEGRADED MODE, using the index from the last successful sync {} minutes ago", TimeUnit.MILLISECONDS.toMinutes(age));
+      LOG.warn("Snapshots published since then may not be picked up, run with -U if you need them");
+      stats.recordDegraded(age);
+      return true;
+    }
+
+    if (maxStaleness > 0 && lastSuccess > 0 && age > maxStaleness) {
+      LOG.warn("Last successful accelerator sync was {} minutes ago, too long ago for degraded mode", TimeUnit.MILLISECONDS.toMinutes(age));
+    } else if (maxStaleness > 0 && lastSuccess > 0) {
+      LOG.warn("Accelerator index doesn't have everything from the last successful sync, can't use degraded mode");
     }
+    LOG.warn("Will need to check for all snapshot updates");
+    return false;
   }
 
-  public boolean isHealthy(LocalRepository localRepository) {
-    if (HEALTHY.get() == null) {
-      synchronized (this) {
-        if (HEALTHY.get() == null) {
-          HEALTHY.set(initialize(localRepository));
+  /**
+   * Returns the index for the local repository, opening it the first time this
+   * process needs it. Returns null if another process kept it locked for longer than
+   * {@code timeoutMillis}.
+   */
+  private static AcceleratorIndex openIndex(LocalRepository localRepository, long timeoutMillis) throws IOException {
+    Path path = AcceleratorUtils.INSTANCE.acceleratorIndexPath(localRepository);
+    AcceleratorIndex index = INDEXES.get(path);
+    if (index != null) {
+      return index;
+    }
+
+    synchronized (INDEXES) {
+      index = INDEXES.get(path);
+      if (index == null) {
+        index = AcceleratorIndex.open(path, timeoutMillis);
+        if (index == null) {
+          return null;
+        } else if (index.isFresh()) {
+          LOG.debug("Created a new accelerator index, will sync from the start");
         }
+        INDEXES.put(path, index);
       }
+
+      return index;
     }
+  }
 
-    return HEALTHY.get();
+  /**
+   * Stores every snapshot in the delta in the index and returns the highest id seen,
+   * or {@code offset} if the delta is empty. The delta is read on a separate thread a
+   * few batches ahead, so fetching and decoding the next batch overlaps with applying
+   * the current one. If reading the delta fails part way, the index is checkpointed at
+   * the last snapshot that was applied before the error is rethrown, since the delta is
+   * in id order. The delta is closed once applying it stops if it's {@link Closeable}.
+   */
+  static int applyDelta(AcceleratorIndex index, Iterator<SnapshotVersion> delta, int offset) {
+    return applyDelta(index, delta, offset, null, new AtomicInteger(), Long.MAX_VALUE);
   }
 
-  private static int loadAcceleratorOffset(LocalRepository localRepository) {
-    Path acceleratorStatusPath = AcceleratorUtils.INSTANCE.acceleratorStatusPath(localRepository);
+  /**
+   * Same as {@link #applyDelta(AcceleratorIndex, Iterator, int)}, also adding every
+   * snapshot in the delta to {@code applied} if it isn't null and counting them in
+   * {@code rows}. Stops with a {@link BudgetExceededException} if the delta hasn't been
+   * read by {@code deadline}, checkpointing what was applied so far.
+   */
+  static int applyDelta(AcceleratorIndex index,
+                        final Iterator<SnapshotVersion> delta,
+                        int offset,
+                        List<SnapshotVersion> applied,
+                        AtomicInteger rows,
+                        long deadline) {
+    final BlockingQueue<List<SnapshotVersion>> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
 
-    Properties acceleratorProperties = AcceleratorUtils.INSTANCE.readProperties(acceleratorStatusPath);
-    if (acceleratorProperties == null) {
-      return 0;
+    Thread fetcher = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        List<SnapshotVersion> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+          while (delta.hasNext()) {
+            batch.add(delta.next());
+            if (batch.size() == BATCH_SIZE) {
+              batches.put(batch);
+              batch = new ArrayList<>(BATCH_SIZE);
+            }
+          }
+        } catch (InterruptedException e) {
+          return;
+        } catch (Throwable t) {
+          // still apply what was read before the failure, and always end the delta so
+          // the consumer doesn't wait for a batch that isn't coming
+          failure.set(t);
+        }
+
+        try {
+          if (!batch.isEmpty()) {
+            batches.put(batch);
+          }
+          batches.put(END_OF_DELTA);
+        } catch (InterruptedException ignored) {}
+      }
+    }, "accelerator-delta-fetcher");
+    fetcher.setDaemon(true);
+    fetcher.start();
+
+    int maxId = offset;
+    int updated = 0;
+    boolean outOfTime = false;
+    try {
+      List<SnapshotVersion> batch;
+      while ((batch = batches.poll(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS)) != END_OF_DELTA) {
+        if (batch == null) {
+          outOfTime = true;
+          break;
+        }
+        if (applied != null) {
+          applied.addAll(batch);
+        }
+        for (SnapshotVersion snapshot : batch) {
+          index.put(snapshot);
+          maxId = Math.max(maxId, snapshot.getId());
+          updated++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted applying accelerator delta", e);
+    } finally {
+      fetcher.interrupt();
+      // stopping early leaves the delta part way through its response
+      closeQuietly(delta);
+    }
+
+    rows.addAndGet(updated);
+    LOG.debug("Processed " + updated + " new snapshots");
+    Throwable error = outOfTime ? new BudgetExceededException() : failure.get();
+    if (error != null) {
+      if (maxId > offset) {
+        index.checkpoint(maxId);
+        LOG.debug("Checkpointed accelerator offset " + maxId + " before failure");
+      }
+
+      if (error instanceof Error) {
+        throw (Error) error;
+      } else if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      throw new RuntimeException(error);
+    }
+
+    return maxId;
+  }
+
+  private static void closeQuietly(Iterator<SnapshotVersion> delta) {
+    if (delta instanceof Closeable) {
+      try {
+        ((Closeable) delta).close();
+      } catch (IOException | RuntimeException e) {
+        LOG.debug("Error closing accelerator delta", e);
+      }
+    }
+  }
+
+  /**
+   * Starts syncing the index on a background thread, unless a sync has already been
+   * started for this session. Called when the Maven session starts so the sync
+   * overlaps with project loading instead of blocking the first metadata check. If
+   * {@code prefetcher} isn't null, it's handed the snapshots in the delta once the
+   * sync succeeds.
+   */
+  public void startSync(RepositorySystemSession session) {
+    startSync(session, null);
+  }
+
+  void startSync(RepositorySystemSession session, SnapshotPrefetcher prefetcher) {
+    getSync(session, prefetcher);
+  }
+
+  /**
+   * Whether the index can be used to skip snapshot checks in this session. Waits for
+   * the session's sync to finish, but only until {@code accelerator.syncTimeout}
+   * milliseconds after it was started; checks after that point fall back to normal
+   * checks until it finishes.
+   */
+  public boolean isHealthy(RepositorySystemSession session) {
+    Sync sync = getSync(session, null);
+    try {
+      long remaining = Math.max(sync.deadline - System.currentTimeMillis(), 0);
+      return sync.task.get(remaining, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      if (sync.timeoutLogged.compareAndSet(false, true)) {
+        LOG.warn("Accelerator sync is taking longer than {}ms, will check for snapshot updates until it finishes", syncTimeoutMillis());
+      }
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      LOG.debug("Accelerator sync failed", e);
+      return false;
+    }
+  }
+
+  /**
+   * Whether this session's sync has finished successfully, without waiting for it.
+   */
+  boolean isSynced(RepositorySystemSession session) {
+    Object sync = session.getData().get(SESSION_SYNC);
+    if (!(sync instanceof Sync) || !((Sync) sync).task.isDone()) {
+      return false;
+    }
+
+    try {
+      return ((Sync) sync).task.get();
+    } catch (InterruptedException | ExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * The index for the local repository, only open once a sync has started.
+   */
+  AcceleratorIndex getIndex(LocalRepository localRepository) {
+    return INDEXES.get(AcceleratorUtils.INSTANCE.acceleratorIndexPath(localRepository));
+  }
+
+  private static Sync getSync(RepositorySystemSession session, final SnapshotPrefetcher prefetcher) {
+    SessionData data = session.getData();
+    Object existing = data.get(SESSION_SYNC);
+    if (existing instanceof Sync) {
+      return (Sync) existing;
     }
 
-    String s = acceleratorProperties.getProperty(AcceleratorUtils.LAST_PROCESSED_ID);
-    if (s == null) {
-      LOG.debug("Accelerator file is missing " + AcceleratorUtils.LAST_PROCESSED_ID + " at path " + acceleratorStatusPath);
+    final LocalRepository localRepository = session.getLocalRepository();
+    final AcceleratorStats stats = AcceleratorStats.forSession(session);
+    final long deadline = System.currentTimeMillis() + syncTimeoutMillis();
+    final long budgetDeadline = System.currentTimeMillis() + syncBudgetMillis();
+    FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+
+      @Override
+      public Boolean call() {
+        return initialize(localRepository, prefetcher, stats, deadline, budgetDeadline);
+      }
+    });
+
+    Sync sync = new Sync(task, deadline);
+    if (data.set(SESSION_SYNC, existing, sync)) {
+      Thread thread = new Thread(task, "accelerator-sync");
+      thread.setDaemon(true);
+      thread.start();
+      return sync;
+    }
+
+    return (Sync) data.get(SESSION_SYNC);
+  }
+
+  private static BloomFilter deltaFilter(LocalRepository localRepository) {
+    if (!Boolean.parseBoolean(System.getProperty("accelerator.deltaFilter", "true"))) {
+      return null;
+    }
+
+    long start = System.currentTimeMillis();
+    BloomFilter filter = AcceleratorUtils.INSTANCE.localSnapshotFilter(localRepository, DELTA_FILTER_FPP);
+    LOG.debug("Built delta filter from local repository in " + (System.currentTimeMillis() - start) + "ms");
+    return filter;
+  }
+
+  private static long syncTimeoutMillis() {
+    return millisProperty("accelerator.syncTimeout", DEFAULT_SYNC_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * How long the whole sync may take, including waiting for other builds, before it's
+   * abandoned so the accelerator doesn't cost a build more time than it saves.
+   */
+  private static long syncBudgetMillis() {
+    return millisProperty("accelerator.syncBudget", DEFAULT_SYNC_BUDGET_MILLIS);
+  }
+
+  private static long freshnessWindowMillis() {
+    return millisProperty("accelerator.freshnessWindow", 0);
+  }
+
+  private static long maxStalenessMillis() {
+    return millisProperty("accelerator.maxStaleness", 0);
+  }
+
+  private static long failureBackoffMillis() {
+    return millisProperty("accelerator.failureBackoff", DEFAULT_FAILURE_BACKOFF_MILLIS);
+  }
+
+  private static long millisProperty(String name, long defaultValue) {
+    String value = System.getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Math.max(Long.parseLong(value), 0);
+    } catch (NumberFormatException e) {
+      LOG.warn("Invalid {} {}, using {}ms", name, value, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Whether the last sync succeeded at or after {@code timestamp} and left the index
+   * at the offset it recorded. The status file outlives the index, so a new or wiped
+   * index, or one a crashed sync left at another offset, has to be synced regardless.
+   */
+  private static boolean wasSyncedSince(LocalRepository localRepository, AcceleratorIndex index, long timestamp) {
+    Properties acceleratorProperties = AcceleratorUtils.INSTANCE.readProperties(AcceleratorUtils.INSTANCE.acceleratorStatusPath(localRepository));
+    if (acceleratorProperties == null || !Boolean.parseBoolean(acceleratorProperties.getProperty(AcceleratorUtils.LAST_UPDATE_SUCCESS))) {
+      return false;
+    }
+
+    int offset = index.getSyncedOffset();
+    if (index.isFresh() || offset <= 0 || offset != longStatus(acceleratorProperties, AcceleratorUtils.LAST_PROCESSED_ID)) {
+      return false;
+    }
+
+    try {
+      return Long.parseLong(acceleratorProperties.getProperty(AcceleratorUtils.LAST_UPDATE_TIMESTAMP, "0")) >= timestamp;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * When builds can call the accelerator again after repeated failures, or 0 if they
+   * don't have to wait.
+   */
+  private static long retryAfter(LocalRepository localRepository) {
+    return longStatus(readStatus(localRepository), AcceleratorUtils.RETRY_AFTER_TIMESTAMP);
+  }
+
+  /**
+   * When the index was last synced successfully, or 0 if it never was. Status files
+   * written before this was tracked only have it if the last sync succeeded.
+   */
+  private static long lastSuccessTimestamp(Properties status) {
+    if (status != null && status.getProperty(AcceleratorUtils.LAST_SUCCESS_TIMESTAMP) == null
+        && Boolean.parseBoolean(status.getProperty(AcceleratorUtils.LAST_UPDATE_SUCCESS))) {
+      return longStatus(status, AcceleratorUtils.LAST_UPDATE_TIMESTAMP);
+    }
+
+    return longStatus(status, AcceleratorUtils.LAST_SUCCESS_TIMESTAMP);
+  }
+
+  /**
+   * The offset the last successful sync left the index at, or 0 if there never was
+   * one. Like {@link #lastSuccessTimestamp(Properties)}, older status files only have
+   * it if the last sync succeeded.
+   */
+  private static long lastSuccessOffset(Properties status) {
+    if (status != null && status.getProperty(AcceleratorUtils.LAST_SUCCESS_OFFSET) == null
+        && Boolean.parseBoolean(status.getProperty(AcceleratorUtils.LAST_UPDATE_SUCCESS))) {
+      return longStatus(status, AcceleratorUtils.LAST_PROCESSED_ID);
+    }
+
+    return longStatus(status, AcceleratorUtils.LAST_SUCCESS_OFFSET);
+  }
+
+  /**
+   * Whether the open index has at least what the last successful sync applied. A new
+   * or wiped index is at offset 0, even if the status file says it was synced.
+   */
+  private static boolean hasLastSuccess(LocalRepository localRepository, Properties status) {
+    AcceleratorIndex index = INSTANCE.getIndex(localRepository);
+    if (index == null) {
+      return false;
+    }
+
+    int offset = index.getSyncedOffset();
+    return offset > 0 && offset >= lastSuccessOffset(status);
+  }
+
+  private static Properties readStatus(LocalRepository localRepository) {
+    return AcceleratorUtils.INSTANCE.readProperties(AcceleratorUtils.INSTANCE.acceleratorStatusPath(localRepository));
+  }
+
+  private static long longStatus(Properties status, String key) {
+    if (status == null) {
       return 0;
     }
 
     try {
-      return Integer.parseInt(s);
+      return Math.max(Long.parseLong(status.getProperty(key, "0")), 0);
     } catch (NumberFormatException e) {
-      LOG.debug("Accelerator file has an invalid " + AcceleratorUtils.LAST_PROCESSED_ID + " at path " + acceleratorStatusPath, e);
       return 0;
     }
   }
 
-  private static void updateSnapshotInfo(LocalRepository localRepository, SnapshotVersion snapshot) {
-    Path snapshotInfoPath = AcceleratorUtils.INSTANCE.snapshotInfoPath(localRepository, snapshot);
+  private static boolean isFarBehind(LocalRepository localRepository, int offset) {
+    if (offset == 0) {
+      return true;
+    }
 
-    if (Files.isDirectory(snapshotInfoPath.getParent())) {
-      List<String> lines = Arrays.asList(
-              AcceleratorUtils.LATEST_SNAPSHOT_VERSION + "=" + snapshot.getResolvedVersion(),
-              AcceleratorUtils.LATEST_SNAPSHOT_TIMESTAMP + "=" + snapshot.getTimestamp()
-      );
-      AcceleratorUtils.INSTANCE.writeToPath(lines, snapshotInfoPath);
-    } else {
-      LOG.debug("Skipping update because artifact is not in local repo for path " + snapshotInfoPath);
+    Path acceleratorStatusPath = AcceleratorUtils.INSTANCE.acceleratorStatusPath(localRepository);
+    Properties acceleratorProperties = AcceleratorUtils.INSTANCE.readProperties(acceleratorStatusPath);
+    if (acceleratorProperties == null) {
+      return true;
+    }
+
+    try {
+      long lastUpdate = Long.parseLong(acceleratorProperties.getProperty(AcceleratorUtils.LAST_UPDATE_TIMESTAMP, "0"));
+      return System.currentTimeMillis() - lastUpdate >= FAR_BEHIND_MILLIS;
+    } catch (NumberFormatException e) {
+      LOG.debug("Accelerator file has an invalid " + AcceleratorUtils.LAST_UPDATE_TIMESTAMP + " at path " + acceleratorStatusPath, e);
+      return true;
     }
   }
 
+  /**
+   * Records the failure in the status file. Once {@link #FAILURE_THRESHOLD} syncs in a
+   * row have failed, it also records when builds can try the accelerator again, so
+   * they don't each pay for the accelerator being down.
+   */
   private static void recordAcceleratorFailure(LocalRepository localRepository, int offset, Exception e) {
     LOG.debug("Error updating accelerator data", e);
 
+    long now = System.currentTimeMillis();
+    Properties status = readStatus(localRepository);
+    long failures = longStatus(status, AcceleratorUtils.CONSECUTIVE_FAILURES) + 1;
+    long retryAfter = 0;
+    long backoff = failureBackoffMillis();
+    if (failures >= FAILURE_THRESHOLD && backoff > 0) {
+      for (int i = FAILURE_THRESHOLD; i < failures && backoff <= MAX_FAILURE_BACKOFF_MILLIS / 2; i++) {
+        backoff *= 2;
+      }
+      retryAfter = now + backoff;
+      LOG.warn("Accelerator failed {} times in a row, builds will skip it for the next {}s", failures, TimeUnit.MILLISECONDS.toSeconds(backoff));
+    }
+
     List<String> lines = Arrays.asList(
             AcceleratorUtils.LAST_UPDATE_SUCCESS + "=false",
-            AcceleratorUtils.LAST_UPDATE_TIMESTAMP + "=" + System.currentTimeMillis(),
-            AcceleratorUtils.LAST_PROCESSED_ID + "=" + offset
+            AcceleratorUtils.LAST_UPDATE_TIMESTAMP + "=" + now,
+            AcceleratorUtils.LAST_PROCESSED_ID + "=" + offset,
+            AcceleratorUtils.LAST_SUCCESS_TIMESTAMP + "=" + lastSuccessTimestamp(status),
+            AcceleratorUtils.LAST_SUCCESS_OFFSET + "=" + lastSuccessOffset(status),
+            AcceleratorUtils.CONSECUTIVE_FAILURES + "=" + failures,
+            AcceleratorUtils.RETRY_AFTER_TIMESTAMP + "=" + retryAfter
     );
     try {
       AcceleratorUtils.INSTANCE.writeToPath(lines, AcceleratorUtils.INSTANCE.acceleratorStatusPath(localRepository));
@@ -115,11 +621,36 @@ public enum AcceleratorUpdater {
   }
 
   private static void writeAcceleratorInfo(LocalRepository localRepository, int offset) {
+    long now = System.currentTimeMillis();
     List<String> lines = Arrays.asList(
             AcceleratorUtils.LAST_UPDATE_SUCCESS + "=true",
-            AcceleratorUtils.LAST_UPDATE_TIMESTAMP + "=" + System.currentTimeMillis(),
-            AcceleratorUtils.LAST_PROCESSED_ID + "=" + offset
+            AcceleratorUtils.LAST_UPDATE_TIMESTAMP + "=" + now,
+            AcceleratorUtils.LAST_PROCESSED_ID + "=" + offset,
+            AcceleratorUtils.LAST_SUCCESS_TIMESTAMP + "=" + now,
+            AcceleratorUtils.LAST_SUCCESS_OFFSET + "=" + offset
     );
     AcceleratorUtils.INSTANCE.writeToPath(lines, AcceleratorUtils.INSTANCE.acceleratorStatusPath(localRepository));
   }
+
+  /**
+   * The sync used up {@code accelerator.syncBudget} before the delta was applied.
+   */
+  static class BudgetExceededException extends RuntimeException {
+
+    BudgetExceededException() {
+      super("Accelerator sync ran out of time");
+    }
+  }
+
+  private static class Sync {
+    private final FutureTask<Boolean> task;
+    private final long deadline;
+    private final AtomicBoolean timeoutLogged;
+
+    private Sync(FutureTask<Boolean> task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+      this.timeoutLogged = new AtomicBoolean();
+    }
+  }
 }
@@ -3,13 +3,18 @@ package com.hubspot.snapshots;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
@@ -19,6 +24,7 @@ import org.eclipse.aether.repository.RemoteRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hubspot.snapshots.core.BloomFilter;
 import com.hubspot.snapshots.core.SnapshotVersion;
 
 public enum AcceleratorUtils {
@@ -38,23 +44,21 @@ public enum AcceleratorUtils {
   );
 
   static final String ACCELERATOR_STATUS_FILENAME = "accelerator.status";
-  static final String ACCELERATOR_SNAPSHOT_FILENAME = "accelerator.snapshotInfo";
+  static final String ACCELERATOR_INDEX_FILENAME = "accelerator.index";
   static final String LAST_UPDATE_SUCCESS = "lastUpdateSuccess";
   static final String LAST_UPDATE_TIMESTAMP = "lastUpdateTimestamp";
   static final String LAST_PROCESSED_ID = "lastProcessedId";
-  static final String LATEST_SNAPSHOT_VERSION = "latestSnapshotVersion";
-  static final String LATEST_SNAPSHOT_TIMESTAMP = "latestSnapshotTimestamp";
+  static final String LAST_SUCCESS_TIMESTAMP = "lastSuccessTimestamp";
+  static final String LAST_SUCCESS_OFFSET = "lastSuccessOffset";
+  static final String CONSECUTIVE_FAILURES = "consecutiveFailures";
+  static final String RETRY_AFTER_TIMESTAMP = "retryAfterTimestamp";
 
   Path acceleratorStatusPath(LocalRepository localRepository) {
     return localRepo(localRepository).resolve(AcceleratorUtils.ACCELERATOR_STATUS_FILENAME);
   }
 
-  Path snapshotInfoPath(LocalRepository localRepository, SnapshotVersion snapshot) {
-    return baseDir(localRepository, snapshot.getGroupId(), snapshot.getArtifactId(), snapshot.getBaseVersion()).resolve(ACCELERATOR_SNAPSHOT_FILENAME);
-  }
-
-  Path snapshotInfoPath(LocalRepository localRepository, Metadata metadata) {
-    return baseDir(localRepository, metadata.getGroupId(), metadata.getArtifactId(), metadata.getVersion()).resolve(ACCELERATOR_SNAPSHOT_FILENAME);
+  Path acceleratorIndexPath(LocalRepository localRepository) {
+    return localRepo(localRepository).resolve(ACCELERATOR_INDEX_FILENAME);
   }
 
   Path mavenMetadataPath(LocalRepository localRepository, Metadata metadata, RemoteRepository repository) {
@@ -62,6 +66,10 @@ public enum AcceleratorUtils {
     return baseDir(localRepository, metadata.getGroupId(), metadata.getArtifactId(), metadata.getVersion()).resolve(fileName);
   }
 
+  Path snapshotDir(LocalRepository localRepository, SnapshotVersion snapshot) {
+    return baseDir(localRepository, snapshot.getGroupId(), snapshot.getArtifactId(), snapshot.getBaseVersion());
+  }
+
   private Path baseDir(LocalRepository localRepository, String groupId, String artifactId, String version) {
     String[] groupParts = groupId.split("\\.");
 
@@ -74,6 +82,63 @@ public enum AcceleratorUtils {
             .resolve(version);
   }
 
+  /**
+   * Walks the local repository and returns a filter containing every snapshot
+   * directory in it, or null if the walk fails.
+   */
+  BloomFilter localSnapshotFilter(LocalRepository localRepository, double falsePositiveProbability) {
+    final Path localRepo = localRepo(localRepository);
+    final List<String> coordinates = new ArrayList<>();
+
+    try {
+      Files.walkFileTree(localRepo, new SimpleFileVisitor<Path>() {
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          Path relative = localRepo.relativize(dir);
+          int count = relative.getNameCount();
+          if (count < 3 || !relative.getFileName().toString().endsWith("-SNAPSHOT")) {
+            return FileVisitResult.CONTINUE;
+          }
+
+          StringBuilder groupId = new StringBuilder();
+          for (int i = 0; i < count - 2; i++) {
+            if (i > 0) {
+              groupId.append('.');
+            }
+            groupId.append(relative.getName(i).toString());
+          }
+
+          String artifactId = relative.getName(count - 2).toString();
+          String baseVersion = relative.getName(count - 1).toString();
+          coordinates.add(BloomFilter.coordinates(groupId.toString(), artifactId, baseVersion));
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          LOG.debug("Error visiting " + file, e);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      LOG.debug("Error walking local repository at " + localRepo, e);
+      return null;
+    }
+
+    BloomFilter filter = BloomFilter.create(coordinates.size(), falsePositiveProbability);
+    for (String coordinate : coordinates) {
+      filter.put(coordinate);
+    }
+
+    return filter;
+  }
+
   Properties readProperties(Path path) {
     try (InputStream inputStream = Files.newInputStream(path, StandardOpenOption.READ)) {
       Properties properties = new Properties();
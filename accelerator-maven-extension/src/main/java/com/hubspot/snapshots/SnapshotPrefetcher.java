@@ -0,0 +1,178 @@
+package com.hubspot.snapshots;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+/**
+ * Downloads the new version of snapshots that changed in the delta and are present in
+ * the local repository, so the resolver finds them locally later in the build. Each
+ * snapshot is resolved through the repository system by its base version, which
+ * fetches the new maven metadata, then the POM and the main jar.
+ *
+ * Off unless {@code accelerator.prefetch=true}. {@code accelerator.prefetchThreads}
+ * limits the number of concurrent downloads and {@code accelerator.prefetchMaxBytes}
+ * the total size downloaded, once it has been reached no new downloads are started.
+ */
+class SnapshotPrefetcher {
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotPrefetcher.class);
+
+  private static final int DEFAULT_THREADS = 4;
+  private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  private final RepositorySystem repositorySystem;
+  private final RepositorySystemSession session;
+  private final List<RemoteRepository> repositories;
+  private final int threads;
+  private final long maxBytes;
+  private final AtomicLong downloadedBytes;
+  private final AtomicBoolean limitLogged;
+
+  SnapshotPrefetcher(RepositorySystem repositorySystem,
+                     RepositorySystemSession session,
+                     List<RemoteRepository> repositories,
+                     int threads,
+                     long maxBytes) {
+    DefaultRepositorySystemSession prefetchSession = new DefaultRepositorySystemSession(session);
+    // the accelerator already knows these changed, so bypass the update policy
+    prefetchSession.setUpdatePolicy(RepositoryPolicy.UPDATE_POLICY_ALWAYS);
+
+    this.repositorySystem = repositorySystem;
+    this.session = prefetchSession;
+    this.repositories = repositories;
+    this.threads = threads;
+    this.maxBytes = maxBytes;
+    this.downloadedBytes = new AtomicLong();
+    this.limitLogged = new AtomicBoolean();
+  }
+
+  static boolean isEnabled() {
+    return Boolean.getBoolean("accelerator.prefetch");
+  }
+
+  /**
+   * Returns a prefetcher configured from system properties, or null if there are no
+   * repositories to prefetch from.
+   */
+  static SnapshotPrefetcher fromSystemProperties(RepositorySystem repositorySystem,
+                                                 RepositorySystemSession session,
+                                                 List<RemoteRepository> repositories) {
+    if (repositories.isEmpty()) {
+      return null;
+    }
+
+    int threads = Math.max(Integer.getInteger("accelerator.prefetchThreads", DEFAULT_THREADS), 1);
+    long maxBytes = Long.getLong("accelerator.prefetchMaxBytes", DEFAULT_MAX_BYTES);
+    return new SnapshotPrefetcher(repositorySystem, session, repositories, threads, maxBytes);
+  }
+
+  /**
+   * Starts downloading the latest version of each snapshot in the background and
+   * returns immediately.
+   */
+  void prefetch(LocalRepository localRepository, Collection<SnapshotVersion> snapshots) {
+    Map<String, SnapshotVersion> changed = new LinkedHashMap<>();
+    for (SnapshotVersion snapshot : snapshots) {
+      changed.put(snapshot.getGroupId() + ':' + snapshot.getArtifactId() + ':' + snapshot.getBaseVersion(), snapshot);
+    }
+
+    ExecutorService executor = null;
+    int queued = 0;
+    for (final SnapshotVersion snapshot : changed.values()) {
+      Path snapshotDir = AcceleratorUtils.INSTANCE.snapshotDir(localRepository, snapshot);
+      if (!Files.isDirectory(snapshotDir)) {
+        continue;
+      }
+
+      String pomFileName = snapshot.getArtifactId() + '-' + snapshot.getResolvedVersion() + ".pom";
+      if (Files.exists(snapshotDir.resolve(pomFileName))) {
+        continue;
+      }
+
+      if (executor == null) {
+        executor = Executors.newFixedThreadPool(threads, new PrefetchThreadFactory());
+      }
+
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          prefetch(snapshot);
+        }
+      });
+      queued++;
+    }
+
+    if (executor != null) {
+      executor.shutdown();
+      LOG.debug("Prefetching " + queued + " changed snapshots");
+    }
+  }
+
+  private void prefetch(SnapshotVersion snapshot) {
+    if (downloadedBytes.get() >= maxBytes) {
+      if (limitLogged.compareAndSet(false, true)) {
+        LOG.debug("Downloaded " + downloadedBytes.get() + " bytes, not prefetching any more snapshots");
+      }
+      return;
+    }
+
+    for (String extension : new String[] { "pom", "jar" }) {
+      DefaultArtifact artifact = new DefaultArtifact(
+          snapshot.getGroupId(),
+          snapshot.getArtifactId(),
+          extension,
+          snapshot.getBaseVersion()
+      );
+
+      try {
+        ArtifactResult result = repositorySystem.resolveArtifact(session, new ArtifactRequest(artifact, repositories, null));
+        if (result.getRepository() instanceof RemoteRepository && result.getArtifact().getFile() != null) {
+          downloadedBytes.addAndGet(result.getArtifact().getFile().length());
+        }
+      } catch (ArtifactResolutionException e) {
+        // not every snapshot has a jar, and the resolver will report real failures later
+        LOG.debug("Unable to prefetch " + artifact, e);
+        return;
+      } catch (RuntimeException e) {
+        LOG.debug("Error prefetching " + artifact, e);
+        return;
+      }
+    }
+  }
+
+  private static class PrefetchThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "accelerator-prefetch-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
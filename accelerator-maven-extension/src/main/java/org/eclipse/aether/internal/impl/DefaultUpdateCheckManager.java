@@ -59,7 +59,9 @@ import org.eclipse.aether.transfer.MetadataNotFoundException;
 import org.eclipse.aether.transfer.MetadataTransferException;
 import org.eclipse.aether.util.ConfigUtils;
 
+import com.hubspot.snapshots.AcceleratorDecision;
 import com.hubspot.snapshots.AcceleratorHelper;
+import com.hubspot.snapshots.AcceleratorStats;
 
 /**
  */
@@ -80,6 +82,8 @@ public class DefaultUpdateCheckManager
 
   private static final String SESSION_CHECKS = "updateCheckManager.checks";
 
+  private static final String SESSION_ACCELERATOR_DECISIONS = "updateCheckManager.acceleratorDecisions";
+
   static final String CONFIG_PROP_SESSION_STATE = "aether.updateCheckManager.sessionState";
 
   private static final int STATE_ENABLED = 0;
@@ -553,8 +557,12 @@ public class DefaultUpdateCheckManager
 
   private boolean isMetadataUpdatedRequired( RepositorySystemSession session, long lastModified, UpdateCheck<Metadata, ?> check )
   {
+    AcceleratorStats stats = AcceleratorStats.forSession( session );
+    stats.recordMetadataCheck();
+
     if ( forceUpdate( session ) )
     {
+      stats.recordForced();
       if ( logger.isDebugEnabled() )
       {
         logger.debug("Force update flag is set, checking for updated metadata " + check.getItem());
@@ -563,14 +571,15 @@ public class DefaultUpdateCheckManager
     }
 
     boolean updateRequired = updatePolicyAnalyzer.isUpdatedRequired( session, lastModified, check.getPolicy() );
-    if ( updateRequired )
-    {
-      boolean acceleratorShortCircuit = AcceleratorHelper.INSTANCE.shouldSkipUpdate(
-              session.getLocalRepository(),
-              check.getItem(),
-              check.getRepository()
-      );
-      if ( acceleratorShortCircuit )
+    if ( !updateRequired )
+    {
+      stats.recordNotDue();
+    }
+    else
+    {
+      AcceleratorDecision decision = decide( session, check );
+      stats.recordDecision( decision );
+      if ( decision.isSkip() )
       {
         if ( logger.isDebugEnabled() )
         {
@@ -583,6 +592,59 @@ public class DefaultUpdateCheckManager
     return updateRequired;
   }
 
+  /**
+   * Asks the accelerator whether the metadata can be skipped, remembering the answer for
+   * the rest of the session since modules tend to check the same metadata over and over.
+   * Answers are only remembered once the accelerator has synced, and are forgotten when
+   * the metadata is downloaded.
+   */
+  private AcceleratorDecision decide( RepositorySystemSession session, UpdateCheck<Metadata, ?> check )
+  {
+    String decisionKey = getAcceleratorDecisionKey( check.getItem(), check.getRepository() );
+    Map<String, AcceleratorDecision> decisions = getAcceleratorDecisions( session );
+
+    AcceleratorDecision decision = decisions.get( decisionKey );
+    if ( decision != null )
+    {
+      return decision;
+    }
+
+    decision = AcceleratorHelper.INSTANCE.decide(
+            session,
+            check.getItem(),
+            check.getRepository()
+    );
+    if ( decision != AcceleratorDecision.UNHEALTHY && AcceleratorHelper.INSTANCE.isSynced( session ) )
+    {
+      decisions.put( decisionKey, decision );
+    }
+    return decision;
+  }
+
+  private String getAcceleratorDecisionKey( Metadata metadata, RemoteRepository repository )
+  {
+    return metadata.getGroupId() + ':' + metadata.getArtifactId() + ':' + metadata.getVersion() + ':'
+            + metadata.getType() + '|' + ( repository == null ? "" : repository.getId() );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private Map<String, AcceleratorDecision> getAcceleratorDecisions( RepositorySystemSession session )
+  {
+    SessionData data = session.getData();
+    Object decisions = data.get( SESSION_ACCELERATOR_DECISIONS );
+    while ( !( decisions instanceof Map ) )
+    {
+      Object old = decisions;
+      decisions = new ConcurrentHashMap<String, AcceleratorDecision>( 256 );
+      if ( data.set( SESSION_ACCELERATOR_DECISIONS, old, decisions ) )
+      {
+        break;
+      }
+      decisions = data.get( SESSION_ACCELERATOR_DECISIONS );
+    }
+    return (Map<String, AcceleratorDecision>) decisions;
+  }
+
   private boolean forceUpdate(RepositorySystemSession session)
   {
     return ConfigUtils.getBoolean(session, false, "forceUpdate");
@@ -641,6 +703,8 @@ public class DefaultUpdateCheckManager
 
     setUpdated( session, updateKey );
     write( touchFile, dataKey, transferKey, check.getException() );
+
+    getAcceleratorDecisions( session ).remove( getAcceleratorDecisionKey( metadata, check.getRepository() ) );
   }
 
   private Properties write( File touchFile, String dataKey, String transferKey, Exception error )
@@ -0,0 +1,95 @@
+package com.hubspot.snapshots;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AcceleratorHelperTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void itParsesTheSnapshotTimestamp() throws IOException {
+    Path metadata = write(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+            "<metadata modelVersion=\"1.1.0\">",
+            "  <groupId>com.test</groupId>",
+            "  <artifactId>test</artifactId>",
+            "  <version>0.1-SNAPSHOT</version>",
+            "  <versioning>",
+            "    <snapshot>",
+            "      <timestamp>20171129.222952</timestamp>",
+            "      <buildNumber>3</buildNumber>",
+            "    </snapshot>",
+            "    <lastUpdated>20171129222952</lastUpdated>",
+            "    <snapshotVersions>",
+            "      <snapshotVersion>",
+            "        <extension>jar</extension>",
+            "        <value>0.1-20171129.222952-3</value>",
+            "        <updated>20171129222952</updated>",
+            "      </snapshotVersion>",
+            "    </snapshotVersions>",
+            "  </versioning>",
+            "</metadata>"
+    );
+
+    assertThat(AcceleratorHelper.parseMavenMetadataTimestamp(metadata)).isEqualTo("20171129.222952");
+  }
+
+  @Test
+  public void itOnlyMatchesTheFullPathFromTheRoot() throws IOException {
+    Path metadata = write(
+            "<metadata>",
+            "  <timestamp>19990101.000000</timestamp>",
+            "  <plugins>",
+            "    <versioning><snapshot><timestamp>19990101.000001</timestamp></snapshot></versioning>",
+            "  </plugins>",
+            "  <versioning>",
+            "    <timestamp>19990101.000002</timestamp>",
+            "    <snapshotVersions><snapshot><timestamp>19990101.000003</timestamp></snapshot></snapshotVersions>",
+            "    <snapshot><buildNumber>3</buildNumber></snapshot>",
+            "    <snapshot><timestamp> 20171129.222952 </timestamp></snapshot>",
+            "  </versioning>",
+            "</metadata>"
+    );
+
+    assertThat(AcceleratorHelper.parseMavenMetadataTimestamp(metadata)).isEqualTo("20171129.222952");
+  }
+
+  @Test
+  public void itReturnsNullWithoutASnapshotTimestamp() throws IOException {
+    Path metadata = write(
+            "<metadata>",
+            "  <versioning>",
+            "    <latest>0.1</latest>",
+            "    <lastUpdated>20171129222952</lastUpdated>",
+            "  </versioning>",
+            "</metadata>"
+    );
+
+    assertThat(AcceleratorHelper.parseMavenMetadataTimestamp(metadata)).isNull();
+  }
+
+  @Test
+  public void itReturnsNullForMalformedMetadata() throws IOException {
+    Path metadata = write("<metadata><versioning><snapshot>");
+
+    assertThat(AcceleratorHelper.parseMavenMetadataTimestamp(metadata)).isNull();
+    assertThat(AcceleratorHelper.parseMavenMetadataTimestamp(folder.getRoot().toPath().resolve("missing.xml"))).isNull();
+  }
+
+  private Path write(String... lines) throws IOException {
+    Path path = folder.newFile("maven-metadata-test.xml").toPath();
+    Files.write(path, Arrays.asList(lines), StandardCharsets.UTF_8);
+    return path;
+  }
+}
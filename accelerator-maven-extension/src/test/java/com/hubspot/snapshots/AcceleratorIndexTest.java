@@ -0,0 +1,152 @@
+package com.hubspot.snapshots;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+public class AcceleratorIndexTest {
+  // where the header keeps the index's state, see AcceleratorIndex
+  private static final int STATE_OFFSET = 8;
+  private static final int STATE_REBUILDING = 1;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path path;
+  private AcceleratorIndex index;
+
+  @Before
+  public void setup() throws IOException {
+    path = folder.getRoot().toPath().resolve(AcceleratorUtils.ACCELERATOR_INDEX_FILENAME);
+    index = open();
+  }
+
+  @After
+  public void teardown() throws IOException {
+    index.close();
+  }
+
+  @Test
+  public void itStartsFreshAndEmpty() {
+    assertThat(index.isFresh()).isTrue();
+    assertThat(index.getSyncedOffset()).isEqualTo(0);
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isEqualTo(AcceleratorIndex.ABSENT);
+  }
+
+  @Test
+  public void itReturnsTheTimestampThatWasPut() {
+    index.put(snapshot(1, "test", "20171129.222952-1"));
+
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isEqualTo(20171129222952L);
+    assertThat(index.getTimestamp("com.test", "other", "0.1-SNAPSHOT")).isEqualTo(AcceleratorIndex.ABSENT);
+    assertThat(index.getTimestamp("com.test", "test", "0.2-SNAPSHOT")).isEqualTo(AcceleratorIndex.ABSENT);
+  }
+
+  @Test
+  public void itOverwritesTheSameKeyWithNewerIds() {
+    index.put(snapshot(1, "test", "20171129.222952-1"));
+    index.put(snapshot(2, "test", "20171130.101010-2"));
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isEqualTo(20171130101010L);
+
+    // the delta can repeat older rows, they don't move the timestamp back
+    index.put(snapshot(1, "test", "20171129.222952-1"));
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isEqualTo(20171130101010L);
+  }
+
+  @Test
+  public void itNeverSkipsChecksForUnparseableVersions() {
+    index.put(new SnapshotVersion(1, "com.test", "test", "0.1-SNAPSHOT", "0.1-SNAPSHOT"));
+
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isGreaterThan(99991231235959L);
+  }
+
+  @Test
+  public void itGrowsPastHalfCapacity() throws IOException {
+    int count = 20000;
+    for (int i = 1; i <= count; i++) {
+      index.put(snapshot(i, "artifact-" + i, "20171129.222952-" + i));
+    }
+    index.checkpoint(count);
+
+    for (int i = 1; i <= count; i++) {
+      assertThat(index.getTimestamp("com.test", "artifact-" + i, "0.1-SNAPSHOT")).isEqualTo(20171129222952L);
+    }
+
+    index.close();
+    index = open();
+    assertThat(index.isFresh()).isFalse();
+    assertThat(index.getSyncedOffset()).isEqualTo(count);
+    assertThat(index.getTimestamp("com.test", "artifact-" + count, "0.1-SNAPSHOT")).isEqualTo(20171129222952L);
+  }
+
+  @Test
+  public void itKeepsCheckpointsWhenReopened() throws IOException {
+    index.put(snapshot(5, "test", "20171129.222952-1"));
+    index.checkpoint(5);
+
+    index.close();
+    index = open();
+    assertThat(index.isFresh()).isFalse();
+    assertThat(index.getSyncedOffset()).isEqualTo(5);
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isEqualTo(20171129222952L);
+  }
+
+  @Test
+  public void itDoesNotTrustAnIndexThatIsBeingRebuilt() throws IOException {
+    index.put(snapshot(5, "test", "20171129.222952-1"));
+    index.checkpoint(5);
+
+    // like another process that crashed part way through growing the index
+    setState(STATE_REBUILDING);
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isEqualTo(AcceleratorIndex.UNKNOWN);
+
+    index.close();
+    index = open();
+    assertThat(index.isFresh()).isTrue();
+    assertThat(index.getSyncedOffset()).isEqualTo(0);
+    assertThat(index.getTimestamp("com.test", "test", "0.1-SNAPSHOT")).isEqualTo(AcceleratorIndex.ABSENT);
+  }
+
+  @Test
+  public void itParsesTimestamps() {
+    assertThat(AcceleratorIndex.parseTimestamp("20171129.222952")).isEqualTo(20171129222952L);
+    assertThat(AcceleratorIndex.parseTimestamp("20171129.222952")).isLessThan(AcceleratorIndex.parseTimestamp("20171130.000000"));
+    assertThat(AcceleratorIndex.parseTimestamp(null)).isEqualTo(-1);
+    assertThat(AcceleratorIndex.parseTimestamp("")).isEqualTo(-1);
+    assertThat(AcceleratorIndex.parseTimestamp("20171129222952")).isEqualTo(-1);
+    assertThat(AcceleratorIndex.parseTimestamp("20171129-222952")).isEqualTo(-1);
+    assertThat(AcceleratorIndex.parseTimestamp("2017112a.222952")).isEqualTo(-1);
+    assertThat(AcceleratorIndex.parseTimestamp("20171129.2229521")).isEqualTo(-1);
+  }
+
+  private AcceleratorIndex open() throws IOException {
+    AcceleratorIndex opened = AcceleratorIndex.open(path, 0);
+    assertThat(opened).isNotNull();
+    return opened;
+  }
+
+  private void setState(int state) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(4);
+      buffer.putInt(state);
+      buffer.flip();
+      channel.write(buffer, STATE_OFFSET);
+    }
+  }
+
+  private static SnapshotVersion snapshot(int id, String artifactId, String timestampAndBuild) {
+    return new SnapshotVersion(id, "com.test", artifactId, "0.1-SNAPSHOT", "0.1-" + timestampAndBuild);
+  }
+}
@@ -0,0 +1,62 @@
+package com.hubspot.snapshots;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hubspot.snapshots.core.SnapshotVersion;
+
+public class AcceleratorUpdaterTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void itReusesASyncThatFinishesWhileWaitingForTheIndexLock() throws Exception {
+    final LocalRepository localRepository = new LocalRepository(folder.getRoot());
+    final AcceleratorStats stats = AcceleratorStats.forSession(new DefaultRepositorySystemSession());
+
+    // stands in for another build that is syncing the same local repository
+    try (AcceleratorIndex other = AcceleratorIndex.open(AcceleratorUtils.INSTANCE.acceleratorIndexPath(localRepository), 0)) {
+      FileLock lock = other.tryLockForUpdate(0);
+      other.put(new SnapshotVersion(5, "com.test", "test", "0.1-SNAPSHOT", "0.1-20171129.222952-1"));
+      other.checkpoint(5);
+
+      final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+      FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+
+        @Override
+        public Boolean call() {
+          return AcceleratorUpdater.initialize(localRepository, null, stats, deadline, deadline);
+        }
+      });
+      Thread thread = new Thread(task);
+      thread.start();
+      while (thread.getState() != Thread.State.TIMED_WAITING) {
+        assertThat(task.isDone()).isFalse();
+        Thread.sleep(10);
+      }
+
+      AcceleratorUtils.INSTANCE.writeToPath(Arrays.asList(
+              AcceleratorUtils.LAST_UPDATE_SUCCESS + "=true",
+              AcceleratorUtils.LAST_UPDATE_TIMESTAMP + "=" + System.currentTimeMillis(),
+              AcceleratorUtils.LAST_PROCESSED_ID + "=5"
+      ), AcceleratorUtils.INSTANCE.acceleratorStatusPath(localRepository));
+      lock.release();
+
+      // there's no accelerator URL configured, so fetching the delta would fail
+      assertThat(task.get(30, TimeUnit.SECONDS)).isTrue();
+      assertThat(stats.summary()).contains("reused a recent sync");
+    }
+  }
+}
@@ -1,8 +1,13 @@
 package com.hubspot.snapshots.plugin;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -13,55 +18,198 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 
 import com.hubspot.snapshots.client.AcceleratorClient;
+import com.hubspot.snapshots.core.SnapshotReportResult;
 import com.hubspot.snapshots.core.SnapshotVersionEgg;
 
 @Mojo(name = "report", defaultPhase = LifecyclePhase.DEPLOY, threadSafe = true, requiresDependencyResolution = ResolutionScope.RUNTIME)
 public class ReportMojo extends AbstractMojo {
+  // each module's value is null until the plugin runs in it, then its snapshot (or
+  // FALSE if it has none), then TRUE once the snapshot has been reported
+  private static final String REPORT_CONTEXT_KEY = ReportMojo.class.getName() + ".snapshot";
+  private static final String SESSION_END_KEY = ReportMojo.class.getName() + ".sessionEnd";
 
   @Parameter(defaultValue = "${project}", readonly = true, required = true)
   private MavenProject project;
 
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
   @Parameter(property = "accelerator.plugin.skip", defaultValue = "false")
   private boolean skip;
 
   @Parameter(property = "accelerator.failOnError", defaultValue = "false")
   private boolean failOnError;
 
+  // like deployAtEnd, this waits for the plugin to run in every module of the reactor,
+  // whatever was recorded is reported when the session ends if that never happens
+  @Parameter(property = "accelerator.reportAtEnd", defaultValue = "true")
+  private boolean reportAtEnd;
+
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
+    SnapshotVersionEgg snapshot = skip ? null : toSnapshot();
     if (skip) {
       getLog().info("Skipping plugin execution");
+    }
+
+    if (!reportAtEnd) {
+      if (snapshot != null) {
+        report(Collections.singletonList(snapshot));
+      }
       return;
     }
 
+    List<SnapshotVersionEgg> snapshots = collect(snapshot);
+    if (snapshots == null) {
+      if (snapshot != null) {
+        getLog().info("Will report to accelerator API at the end of the reactor build");
+      }
+    } else if (!snapshots.isEmpty()) {
+      report(snapshots);
+    }
+  }
+
+  private SnapshotVersionEgg toSnapshot() {
     Artifact artifact = project.getArtifact();
 
     // this check is also important because calling isSnapshot changes the object's internal state :facepalm:
     if (!artifact.isSnapshot()) {
       getLog().info("Skipping non-snapshot artifact");
-      return;
+      return null;
     } else if (artifact.getVersion().endsWith("SNAPSHOT")) {
       getLog().warn("Skipping non-resolved snapshot version " + artifact.getVersion());
-      return;
+      return null;
     }
 
-    SnapshotVersionEgg snapshot = new SnapshotVersionEgg(
+    return new SnapshotVersionEgg(
             artifact.getGroupId(),
             artifact.getArtifactId(),
             artifact.getBaseVersion(),
             artifact.getVersion()
     );
+  }
+
+  /**
+   * Records this module's snapshot (or that it has none) and returns the snapshots of
+   * the whole reactor once every module has been recorded, otherwise null.
+   */
+  private List<SnapshotVersionEgg> collect(SnapshotVersionEgg snapshot) {
+    synchronized (ReportMojo.class) {
+      project.setContextValue(REPORT_CONTEXT_KEY, snapshot == null ? Boolean.FALSE : snapshot);
+      reportAtSessionEnd();
+
+      for (MavenProject reactorProject : session.getProjects()) {
+        if (reactorProject.getContextValue(REPORT_CONTEXT_KEY) == null) {
+          return null;
+        }
+      }
+
+      return takeRecorded();
+    }
+  }
+
+  /**
+   * Makes sure whatever has been recorded gets reported when the session ends, in case
+   * the plugin never runs in some modules because one failed, the build stopped early
+   * or the plugin isn't bound in them.
+   */
+  private void reportAtSessionEnd() {
+    if (!session.getRepositorySession().getData().set(SESSION_END_KEY, null, Boolean.TRUE)) {
+      return;
+    }
+
+    MavenExecutionRequest request = session.getRequest();
+    request.setExecutionListener(new SessionEndListener(request.getExecutionListener(), new Runnable() {
+
+      @Override
+      public void run() {
+        reportRemaining();
+      }
+    }));
+  }
+
+  private void reportRemaining() {
+    List<String> missing = new ArrayList<>();
+    List<SnapshotVersionEgg> snapshots;
+    synchronized (ReportMojo.class) {
+      for (MavenProject reactorProject : session.getProjects()) {
+        if (reactorProject.getContextValue(REPORT_CONTEXT_KEY) == null) {
+          missing.add(reactorProject.getGroupId() + ":" + reactorProject.getArtifactId());
+        }
+      }
+
+      snapshots = takeRecorded();
+    }
+
+    if (missing.isEmpty()) {
+      // the last module already reported everything
+      return;
+    }
+
+    getLog().warn("Accelerator plugin didn't run in " + missing.size() + " module(s): " + missing);
+    if (!snapshots.isEmpty()) {
+      getLog().warn("Reporting the " + snapshots.size() + " snapshot(s) recorded before the build ended");
+      try {
+        report(snapshots);
+      } catch (MojoExecutionException e) {
+        // already logged, and it's too late to fail the build
+      }
+    }
+  }
 
+  /**
+   * Returns the snapshots that have been recorded but not reported yet, marking them
+   * as reported.
+   */
+  private List<SnapshotVersionEgg> takeRecorded() {
+    List<SnapshotVersionEgg> snapshots = new ArrayList<>();
+    for (MavenProject reactorProject : session.getProjects()) {
+      Object value = reactorProject.getContextValue(REPORT_CONTEXT_KEY);
+      if (value instanceof SnapshotVersionEgg) {
+        snapshots.add((SnapshotVersionEgg) value);
+        reactorProject.setContextValue(REPORT_CONTEXT_KEY, Boolean.TRUE);
+      }
+    }
+
+    return snapshots;
+  }
+
+  private void report(List<SnapshotVersionEgg> snapshots) throws MojoExecutionException {
+    List<SnapshotReportResult> results;
     try {
-      AcceleratorClient.detectingBaseUrl().report(snapshot);
-      getLog().info("Successfully reported to accelerator API");
+      results = AcceleratorClient.detectingBaseUrl().reportBatch(snapshots);
     } catch (IOException e) {
       if (failOnError) {
         getLog().error("Error reporting to accelerator API", e);
         throw new MojoExecutionException("Error reporting to accelerator API", e);
       } else {
         getLog().warn("Error reporting to accelerator API", e);
+        return;
+      }
+    }
+
+    int failures = 0;
+    for (int i = 0; i < results.size(); i++) {
+      SnapshotReportResult result = results.get(i);
+      if (!result.isSuccess()) {
+        failures++;
+        String message = "Error reporting " + describe(snapshots.get(i)) + " to accelerator API: " + result.getError();
+        if (failOnError) {
+          getLog().error(message);
+        } else {
+          getLog().warn(message);
+        }
       }
     }
+
+    if (failures == 0) {
+      getLog().info("Successfully reported " + snapshots.size() + " snapshot(s) to accelerator API");
+    } else if (failOnError) {
+      throw new MojoExecutionException("Error reporting " + failures + " of " + snapshots.size() + " snapshot(s) to accelerator API");
+    }
+  }
+
+  private static String describe(SnapshotVersionEgg snapshot) {
+    return snapshot.getGroupId() + ":" + snapshot.getArtifactId() + ":" + snapshot.getResolvedVersion();
   }
 }